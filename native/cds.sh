@@ -0,0 +1,60 @@
+#!/bin/sh
+# Builds the class data sharing archive of the native driver. A training run of the
+# driver over the fixtures lists the classes it loads and the JVM dumps them, already
+# parsed and verified, into an archive that native.sh maps at startup.
+#
+# The archive is only valid for the JVM that creates it, so this must run with the java
+# of the image that runs the driver. JDK 8 only shares the classes of the boot class
+# path, so the driver jar is appended to it both here and in native.sh.
+#
+# The driver output with the archive is checked against the one without it; if they
+# differ, or any step fails, the archive is removed and the driver starts as before:
+# the archive is an optimization, so it never fails the image build.
+#
+# Usage: cds.sh <native-jar-with-dependencies.jar> <fixtures dir> <archive>
+set -e
+
+JAR="`realpath "$1"`"
+FIXTURES="$2"
+ARCHIVE="$3"
+MAIN=tech.sourced.babelfish.Main
+WORK="`mktemp -d`"
+trap 'rm -rf "$WORK"' EXIT
+
+# Leaves the driver without archive
+skip() {
+    echo "$1, not using the shared archive" >&2
+    rm -f "$ARCHIVE"
+    exit 0
+}
+
+for f in "$FIXTURES"/*.c "$FIXTURES"/*.cpp; do
+    [ -f "$f" ] || continue
+    printf '{"action":"parse","encoding":"BASE64","content":"%s"}\n' \
+        "`base64 < "$f" | tr -d '\n'`"
+done > "$WORK/requests"
+
+# The loaded classes are logged on stdout along with the responses, with the JDK 8
+# format or the unified logging one of later JDKs
+java -Xshare:off -verbose:class -Xbootclasspath/a:"$JAR" $MAIN \
+    < "$WORK/requests" > "$WORK/training" 2>/dev/null || skip "the training run failed"
+sed -n -e 's/^\[Loaded \([^ ]*\) from .*/\1/p' \
+    -e 's/^\[.*\]\[class,load\] \([^ ]*\) source: .*/\1/p' "$WORK/training" |
+    tr . / > "$WORK/classlist"
+[ -s "$WORK/classlist" ] || skip "no loaded classes were logged"
+
+rm -f "$ARCHIVE"
+java -XX:+UnlockDiagnosticVMOptions -Xshare:dump -XX:SharedClassListFile="$WORK/classlist" \
+    -XX:SharedArchiveFile="$ARCHIVE" -Xbootclasspath/a:"$JAR" > "$WORK/dump" 2>&1 || {
+    cat "$WORK/dump" >&2
+    skip "the archive couldn't be dumped"
+}
+
+java -jar "$JAR" < "$WORK/requests" > "$WORK/expected" 2>/dev/null ||
+    skip "the run without the archive failed"
+if ! java -XX:+UnlockDiagnosticVMOptions -Xshare:on -XX:SharedArchiveFile="$ARCHIVE" \
+        -Xbootclasspath/a:"$JAR" $MAIN < "$WORK/requests" > "$WORK/shared" 2>/dev/null ||
+        ! cmp -s "$WORK/expected" "$WORK/shared"; then
+    skip "the output with the shared archive differs"
+fi
+echo "`wc -l < "$WORK/classlist"` classes archived in $ARCHIVE" >&2
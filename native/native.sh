@@ -1,5 +1,13 @@
 #!/bin/sh
 JAR=native-jar-with-dependencies.jar
+# Class data sharing archive built by cds.sh, used when present
+ARCHIVE=native.jsa
 BIN="`realpath $0`"
 DIR="`dirname "$BIN"`"
+if [ -f "$DIR/$ARCHIVE" ]; then
+    # Shared classes must come from the boot class path on JDK 8. Xshare:auto ignores
+    # an archive that can't be mapped.
+    exec java -XX:+UnlockDiagnosticVMOptions -Xshare:auto -XX:SharedArchiveFile="$DIR/$ARCHIVE" \
+        -Xbootclasspath/a:"$DIR/$JAR" tech.sourced.babelfish.Main
+fi
 exec java -jar "$DIR/$JAR"
@@ -0,0 +1,99 @@
+package tech.sourced.babelfish;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Processes the "batch" requests, which carry many files in their "files" array:
+ *
+ * {"action": "batch", "files": [{"content": "..."}, {"content": "...", "language": "C"}]}
+ *
+ * Every file is a request of its own that takes the options it doesn't give (language,
+ * format, timeout, outline, projection) from the batch. The files are parsed in parallel
+ * on a process-wide fork-join pool, each thread with its own RequestProcessor, and every
+ * response is written as soon as its file is done, so they come in completion order
+ * with the position of the file in the "index" field. A batch gets exactly one
+ * response per file, and a batch without files a single error response. The pool size is given by the batch.workers setting (0, the
+ * default, means one thread per CPU).
+ *
+ * Batch responses are never cached: the same source would have a different index.
+ */
+final class BatchProcessor {
+    static final String ACTION = "batch";
+
+    private static final ThreadLocal<Worker> worker = ThreadLocal.withInitial(Worker::new);
+
+    private static class Worker {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final RequestProcessor processor = new RequestProcessor(buffer);
+    }
+
+    // Created on the first batch so the threads don't exist if batches are never used
+    private static class PoolHolder {
+        static final ForkJoinPool pool = createPool();
+
+        private static ForkJoinPool createPool() {
+            int parallelism = DriverConfig.getInt("batch.workers", 0);
+            if (parallelism <= 0) {
+                parallelism = Runtime.getRuntime().availableProcessors();
+            }
+            return new ForkJoinPool(parallelism);
+        }
+    }
+
+    private BatchProcessor() {}
+
+    /**
+     * Processes all the files of the batch writing their responses to out, which is
+     * only written by one thread at a time. The batch must have at least one file,
+     * which RequestProcessor checks before. Returns STOP if a response, or the error
+     * response sent instead, couldn't be written.
+     */
+    static Main.ProcessCycle process(DriverRequest batch, final OutputStream out) {
+        final DriverRequest[] files = batch.files;
+        List<ForkJoinTask<Main.ProcessCycle>> tasks =
+                new ArrayList<ForkJoinTask<Main.ProcessCycle>>(files.length);
+
+        for (int i = 0; i < files.length; i++) {
+            final int index = i;
+            files[index].inherit(batch);
+            tasks.add(PoolHolder.pool.submit(() -> {
+                DriverRequest file = files[index];
+                // The source isn't needed anymore once parsed
+                files[index] = null;
+                return processFile(file, out);
+            }));
+        }
+
+        Main.ProcessCycle result = Main.ProcessCycle.CONTINUE;
+        for (ForkJoinTask<Main.ProcessCycle> task : tasks) {
+            if (task.join() == Main.ProcessCycle.STOP) {
+                result = Main.ProcessCycle.STOP;
+            }
+        }
+        return result;
+    }
+
+    private static Main.ProcessCycle processFile(DriverRequest file, OutputStream out) {
+        Worker w = worker.get();
+        Main.ProcessCycle cycle = w.processor.process(file);
+        try {
+            synchronized (out) {
+                w.buffer.writeTo(out);
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("BAILING OUT, CANT WRITE RESPONSES");
+            System.err.println(e.getMessage());
+            cycle = Main.ProcessCycle.STOP;
+        } finally {
+            w.buffer.reset();
+        }
+        return cycle;
+    }
+}
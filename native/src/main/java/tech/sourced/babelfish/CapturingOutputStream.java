@@ -0,0 +1,60 @@
+package tech.sourced.babelfish;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Forwards everything to the wrapped stream and, while capturing, keeps a copy of the
+ * written bytes. Used to store the responses on the ResponseCache while they're still
+ * streamed. The capture is abandoned if it grows past its limit.
+ */
+class CapturingOutputStream extends FilterOutputStream {
+    private ByteArrayOutputStream captured;
+    private int limit;
+
+    CapturingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    OutputStream getTarget() {
+        return out;
+    }
+
+    void startCapture(int limit) {
+        this.captured = new ByteArrayOutputStream();
+        this.limit = limit;
+    }
+
+    // Returns the bytes written since startCapture or null if the capture was abandoned
+    byte[] stopCapture() {
+        byte[] result = captured == null ? null : captured.toByteArray();
+        captured = null;
+        return result;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (captured != null) {
+            captured.write(b);
+            checkLimit();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        if (captured != null) {
+            captured.write(b, off, len);
+            checkLimit();
+        }
+    }
+
+    private void checkLimit() {
+        if (captured.size() > limit) {
+            captured = null;
+        }
+    }
+}
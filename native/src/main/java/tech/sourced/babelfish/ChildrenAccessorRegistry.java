@@ -0,0 +1,179 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Process-wide registry of the methods returning children for every CDT node class.
+ *
+ * JsonASTVisitor.visitChildren uses reflection to get the methods and return values
+ * to retrieve children and assign them to properties instead of a flat list. Inspecting
+ * a class is slow so the result is computed once per node class and shared by all the
+ * visitors (and requests) for the life of the process. The stored arrays are never
+ * modified after being published so they can be read from any thread without locking.
+ *
+ * Calling the getters with Method.invoke is also slow (access checks, varargs arrays and
+ * poor inlining on the hottest loop of the driver) so every getter is turned into a
+ * Function spun by LambdaMetafactory that calls the CDT method directly.
+ */
+final class ChildrenAccessorRegistry {
+
+    static final class ChildAccessor {
+        final String propertyName;
+        // The property name already encoded, see FieldNames
+        final SerializableString propertyKey;
+        final Method method;
+        final String methodName;
+        final boolean returnsArray;
+        final Function<Object, Object> getter;
+
+        ChildAccessor(String propName, Method meth, String methName, boolean retArray,
+                      Function<Object, Object> getter) {
+            propertyName = propName;
+            propertyKey = new SerializedString(propName);
+            method = meth;
+            methodName = methName;
+            returnsArray = retArray;
+            this.getter = getter;
+        }
+    }
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType GETTER_FACTORY_TYPE = MethodType.methodType(Function.class);
+    private static final MethodType GETTER_ERASED_TYPE =
+            MethodType.methodType(Object.class, Object.class);
+
+    // FIXME: change when problem visiting is activated on JsonASTVisitor (and remove
+    // getProblem from here)
+    private static final Set<String> SKIP_METHODS = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList("getClass", "getChildren",
+                "getCompletionContext", "getContainingFilename", "getFileLocation",
+                "getImageLocation", "getOffset", "getParent", "getPropertyInParent",
+                "getTranslationUnit", "getLeadingSyntax", "getLength",
+                "getLinkage", "getOriginalNode", "getRawSignature",
+                "getTrailingSyntax", "getSyntax", "getNodeLocations",
+                "getExecution", "getDependencyTree", "getLastName",
+                "getAlignmentSpecifiers", "getAdapter", "getTypeStringCache",
+                "getProblem", "getRoleForName", "getImplicitNames",
+                // Called manually:
+                "getIncludeDirectives", "getAllPreprocessorStatements", "getMacroExpansions",
+                "getMacroDefinitions"
+                //"getFunctionCallOperatorName", "getClosureTypeName"
+    )));
+
+    private static final ConcurrentHashMap<Class<?>, ChildAccessor[]> cache =
+            new ConcurrentHashMap<Class<?>, ChildAccessor[]>();
+
+    private ChildrenAccessorRegistry() {}
+
+    // Used to sort arrays of Methods, see the comment in inspect
+    private static class MethodWrapper implements Comparable<MethodWrapper> {
+        Method method;
+        String name;
+
+        MethodWrapper(Method meth) {
+            method = meth;
+            name = meth.getName();
+        }
+
+        @Override
+        public int compareTo(MethodWrapper m) {
+            return m.name.compareTo(name);
+        }
+    }
+
+    /**
+     * Returns the child accessors of nodeClass in the order they must be written. The
+     * returned array is shared and must not be modified.
+     */
+    static ChildAccessor[] forClass(Class<?> nodeClass) {
+        ChildAccessor[] accessors = cache.get(nodeClass);
+        if (accessors == null) {
+            // Two threads could inspect the same class at the same time; both results
+            // are equal so the one that loses the race is just discarded
+            accessors = inspect(nodeClass);
+            ChildAccessor[] previous = cache.putIfAbsent(nodeClass, accessors);
+            if (previous != null) {
+                accessors = previous;
+            }
+        }
+        return accessors;
+    }
+
+    private static ChildAccessor[] inspect(Class<?> nodeClass) {
+        // Order of getMethods() changes between runs so we need to do this to
+        // ensure that integration tests do not break
+        Method[] methods = nodeClass.getMethods();
+        List<MethodWrapper> methodWrappers = new ArrayList<MethodWrapper>();
+
+        for (Method m : methods) {
+            String mname = m.getName();
+
+            if (!mname.startsWith("get") || SKIP_METHODS.contains(mname)
+                    || m.getParameterCount() > 0)
+                continue;
+
+            methodWrappers.add(new MethodWrapper(m));
+        }
+        Collections.sort(methodWrappers);
+
+        List<ChildAccessor> accessors = new ArrayList<ChildAccessor>();
+        for (MethodWrapper mw : methodWrappers) {
+            Class<?> returnType = mw.method.getReturnType();
+
+            if (returnType.getName().indexOf("AST") == -1)
+                continue;
+
+            Function<Object, Object> getter = createGetter(mw.method);
+            // Not accessible from here (public method of a non public class); Method.invoke
+            // used to fail with an IllegalAccessException for those so they never
+            // produced any property
+            if (getter == null)
+                continue;
+
+            accessors.add(new ChildAccessor("Prop_" + mw.name.substring(3), mw.method,
+                        mw.name, returnType.isArray(), getter));
+        }
+
+        return accessors.toArray(new ChildAccessor[accessors.size()]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> createGetter(Method method) {
+        MethodHandle handle;
+        try {
+            handle = LOOKUP.unreflect(method);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+
+        try {
+            CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply",
+                    GETTER_FACTORY_TYPE, GETTER_ERASED_TYPE, handle, handle.type());
+            return (Function<Object, Object>) site.getTarget().invokeExact();
+        } catch (Throwable e) {
+            // Shouldn't happen for a public no-args getter, but the MethodHandle
+            // is still way cheaper than Method.invoke
+            final MethodHandle erased = handle.asType(GETTER_ERASED_TYPE);
+            return node -> {
+                try {
+                    return erased.invokeExact(node);
+                } catch (RuntimeException | Error t) {
+                    throw t;
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.base.GeneratorBase;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generator that receives the output of JsonASTVisitor and keeps the nodes as parallel
+ * int columns instead of writing them: every object is a node with its kind (the
+ * IASTClass), the node it's written in, the property it's written under, its start and
+ * end offsets, its name, literal or comment text and the macro it was expanded from.
+ * The kinds, properties and strings are kept on dictionaries indexed by the columns.
+ * Missing values are -1; the other fields written by the visitor are dropped.
+ *
+ * See TranslationUnitColumnarWritter for the output.
+ */
+class ColumnarGenerator extends GeneratorBase {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int[] kinds = new int[INITIAL_CAPACITY];
+    private int[] parents = new int[INITIAL_CAPACITY];
+    private int[] properties = new int[INITIAL_CAPACITY];
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private int[] strings = new int[INITIAL_CAPACITY];
+    private int[] macros = new int[INITIAL_CAPACITY];
+    private int size;
+
+    private final StringTable kindNames = new StringTable();
+    private final StringTable propertyNames = new StringTable();
+    private final StringTable stringTable = new StringTable();
+
+    // One frame per open object or array: the node of the object (or of the object
+    // holding the array) and, for arrays, the property of its elements (-1 for objects)
+    private int[] frameNodes = new int[64];
+    private int[] frameProperties = new int[64];
+    private int frames;
+    // Last field name written in the current object
+    private String field;
+
+    ColumnarGenerator() {
+        super(0, null);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int[] getKinds() {
+        return kinds;
+    }
+
+    int[] getParents() {
+        return parents;
+    }
+
+    int[] getProperties() {
+        return properties;
+    }
+
+    int[] getStarts() {
+        return starts;
+    }
+
+    int[] getEnds() {
+        return ends;
+    }
+
+    int[] getStrings() {
+        return strings;
+    }
+
+    int[] getMacros() {
+        return macros;
+    }
+
+    List<String> getKindNames() {
+        return kindNames.values();
+    }
+
+    List<String> getPropertyNames() {
+        return propertyNames.values();
+    }
+
+    List<String> getStringTable() {
+        return stringTable.values();
+    }
+
+    private void addNode(int parent, int property) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            properties = Arrays.copyOf(properties, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            strings = Arrays.copyOf(strings, capacity);
+            macros = Arrays.copyOf(macros, capacity);
+        }
+        kinds[size] = -1;
+        parents[size] = parent;
+        properties[size] = property;
+        starts[size] = -1;
+        ends[size] = -1;
+        strings[size] = -1;
+        macros[size] = -1;
+        size++;
+    }
+
+    private void pushFrame(int node, int property) {
+        if (frames == frameNodes.length) {
+            frameNodes = Arrays.copyOf(frameNodes, frames * 2);
+            frameProperties = Arrays.copyOf(frameProperties, frames * 2);
+        }
+        frameNodes[frames] = node;
+        frameProperties[frames] = property;
+        frames++;
+    }
+
+    private boolean inObject() {
+        return frames > 0 && frameProperties[frames - 1] < 0;
+    }
+
+    // Property of a child object or array opened now
+    private int childProperty() {
+        if (frames == 0) {
+            return -1;
+        }
+        int property = frameProperties[frames - 1];
+        return property >= 0 ? property : propertyNames.indexOf(field);
+    }
+
+    @Override
+    public void writeStartObject() {
+        int property = childProperty();
+        addNode(frames == 0 ? -1 : frameNodes[frames - 1], property);
+        pushFrame(size - 1, -1);
+        field = null;
+    }
+
+    @Override
+    public void writeEndObject() {
+        frames--;
+    }
+
+    @Override
+    public void writeStartArray() {
+        if (frames == 0) {
+            // Not an AST; nothing to attach its elements to
+            pushFrame(-1, Integer.MAX_VALUE);
+            return;
+        }
+        pushFrame(frameNodes[frames - 1], childProperty());
+    }
+
+    @Override
+    public void writeEndArray() {
+        frames--;
+    }
+
+    @Override
+    public void writeFieldName(String name) {
+        field = name;
+    }
+
+    @Override
+    public void writeFieldName(SerializableString name) {
+        field = name.getValue();
+    }
+
+    @Override
+    public void writeString(String text) {
+        if (text == null || field == null || !inObject()) {
+            return;
+        }
+        int node = frameNodes[frames - 1];
+        switch (field) {
+            case "IASTClass":
+                kinds[node] = kindNames.indexOf(text);
+                break;
+            case "Name":
+            case "LiteralValue":
+            case "Literal":
+            case "Comment":
+                strings[node] = stringTable.indexOf(text);
+                break;
+            case "ExpandedFromMacro":
+                macros[node] = stringTable.indexOf(text);
+                break;
+        }
+    }
+
+    @Override
+    public void writeString(char[] text, int offset, int len) {
+        writeString(new String(text, offset, len));
+    }
+
+    @Override
+    public void writeString(SerializableString text) {
+        writeString(text.getValue());
+    }
+
+    @Override
+    public void writeNumber(int v) {
+        if (field == null || !inObject()) {
+            return;
+        }
+        int node = frameNodes[frames - 1];
+        switch (field) {
+            case "LocOffsetStart":
+                starts[node] = v;
+                break;
+            case "LocOffsetEnd":
+                ends[node] = v;
+                break;
+        }
+    }
+
+    @Override
+    public void writeNumber(long v) {
+        if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+            writeNumber((int) v);
+        }
+    }
+
+    // The other values aren't part of the columns
+
+    @Override
+    public void writeRawUTF8String(byte[] text, int offset, int length) {}
+
+    @Override
+    public void writeUTF8String(byte[] text, int offset, int length) {}
+
+    @Override
+    public void writeRaw(String text) {}
+
+    @Override
+    public void writeRaw(String text, int offset, int len) {}
+
+    @Override
+    public void writeRaw(char[] text, int offset, int len) {}
+
+    @Override
+    public void writeRaw(char c) {}
+
+    @Override
+    public void writeBinary(Base64Variant bv, byte[] data, int offset, int len) {}
+
+    @Override
+    public void writeNumber(BigInteger v) {}
+
+    @Override
+    public void writeNumber(double v) {}
+
+    @Override
+    public void writeNumber(float v) {}
+
+    @Override
+    public void writeNumber(BigDecimal v) {}
+
+    @Override
+    public void writeNumber(String encodedValue) {}
+
+    @Override
+    public void writeBoolean(boolean state) {}
+
+    @Override
+    public void writeNull() {}
+
+    @Override
+    public void flush() {}
+
+    @Override
+    protected void _releaseBuffers() {}
+
+    @Override
+    protected void _verifyValueWrite(String typeMsg) throws IOException {}
+}
@@ -0,0 +1,38 @@
+package tech.sourced.babelfish;
+
+/**
+ * Settings of the native driver. Every setting can be given as a Java system property
+ * (-Dcppdriver.workers=4) or as an environment variable (CPP_DRIVER_WORKERS=4), the
+ * system property taking precedence. See the README for the list of settings.
+ */
+final class DriverConfig {
+    private static final String PROPERTY_PREFIX = "cppdriver.";
+    private static final String ENV_PREFIX = "CPP_DRIVER_";
+
+    private DriverConfig() {}
+
+    static String getString(String name, String defaultValue) {
+        String value = System.getProperty(PROPERTY_PREFIX + name);
+        if (value == null) {
+            value = System.getenv(ENV_PREFIX + name.toUpperCase().replace('.', '_'));
+        }
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for setting " + name + ": " + value +
+                    ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
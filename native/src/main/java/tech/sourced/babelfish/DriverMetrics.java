@@ -0,0 +1,91 @@
+package tech.sourced.babelfish;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters of the requests answered, the time spent in every phase and the
+ * size of the ASTs, accumulated from every RequestMetrics. They're dumped in the
+ * Prometheus text exposition format by the "stats" action, along with the response
+ * cache counters when the cache is enabled. LongAdder keeps the updates from the
+ * workers cheap.
+ */
+final class DriverMetrics {
+    private static final String PREFIX = "cppdriver_";
+    private static final DriverMetrics instance = new DriverMetrics();
+
+    private final LongAdder[] requests = adders(DriverResponse.Status.values().length);
+    private final LongAdder[] phaseNanos = adders(RequestMetrics.Phase.values().length);
+    private final LongAdder nodes = new LongAdder();
+    private final LongAdder comments = new LongAdder();
+    private final LongAdder macroExpansions = new LongAdder();
+
+    static DriverMetrics getInstance() {
+        return instance;
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    // Metrics is null for the responses that didn't parse anything
+    void record(DriverResponse.Status status, RequestMetrics metrics) {
+        requests[status.ordinal()].increment();
+        if (metrics == null) {
+            return;
+        }
+
+        for (RequestMetrics.Phase phase : RequestMetrics.Phase.values()) {
+            phaseNanos[phase.ordinal()].add(metrics.getNanos(phase));
+        }
+        nodes.add(metrics.nodes);
+        comments.add(metrics.comments);
+        macroExpansions.add(metrics.macroExpansions);
+    }
+
+    String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+
+        header(out, "requests_total", "Requests answered, by response status.");
+        for (DriverResponse.Status status : DriverResponse.Status.values()) {
+            sample(out, "requests_total{status=\"" + status + "\"}",
+                    requests[status.ordinal()].sum());
+        }
+
+        header(out, "phase_seconds_total", "Time spent in every phase of the requests.");
+        for (RequestMetrics.Phase phase : RequestMetrics.Phase.values()) {
+            out.append(PREFIX).append("phase_seconds_total{phase=\"").append(phase)
+                    .append("\"} ").append(phaseNanos[phase.ordinal()].sum() / 1e9).append('\n');
+        }
+
+        header(out, "nodes_total", "AST nodes serialized.");
+        sample(out, "nodes_total", nodes.sum());
+        header(out, "comments_total", "Comments serialized.");
+        sample(out, "comments_total", comments.sum());
+        header(out, "macro_expansions_total", "Macro expansions indexed.");
+        sample(out, "macro_expansions_total", macroExpansions.sum());
+
+        ResponseCache cache = ResponseCache.getInstance();
+        if (cache.isEnabled()) {
+            header(out, "cache_hits_total", "Responses sent from the cache.");
+            sample(out, "cache_hits_total", cache.getHits());
+            header(out, "cache_misses_total", "Responses not found in the cache.");
+            sample(out, "cache_misses_total", cache.getMisses());
+            header(out, "cache_evictions_total", "Responses evicted from the cache.");
+            sample(out, "cache_evictions_total", cache.getEvictions());
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String help) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(" counter\n");
+    }
+
+    private static void sample(StringBuilder out, String name, long value) {
+        out.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -1,15 +1,29 @@
 package tech.sourced.babelfish;
 
-import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
 
 /**
  * Class for the C/C++ driver request.
+ *
+ * Requests are decoded with a streaming parser over a shared JsonFactory instead of
+ * a new ObjectMapper per request, and the source is decoded only once into the char
+ * array that the parser will use, without intermediate Strings. Unknown properties
+ * are ignored.
  */
-
-// To ignore any unknown properties in JSON input without exception
-@JsonIgnoreProperties(ignoreUnknown = true)
 class DriverRequest {
     static class RequestLoadException extends IOException {
         RequestLoadException(Throwable e) {
@@ -17,22 +31,205 @@ class DriverRequest {
         }
     }
 
+    static final String ENCODING_BASE64 = "BASE64";
+    private static final char[] EMPTY_CONTENT = new char[0];
+    // JsonFactory is thread safe once configured
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
     public String action;
     public String language;
     public String languageVersion;
-    public String content;
+    // The already decoded source code
+    public char[] content = EMPTY_CONTENT;
     public String encoding;
+    // Response format, see ExchangeFormat. JSON if not given.
+    public String format;
+    // Time budget in ms of the whole request, overrides the timeout.ms setting. 0 means no
+    // limit.
+    public Long timeout;
+    // Skip the function bodies, see DriverResponse.parseCode
+    public boolean outline;
+    // Part of the AST to write, see Projection
+    public Projection projection = Projection.ALL;
+    // Add the timings and counters of the request to its response, see RequestMetrics
+    public boolean metrics;
+    // Write the lines and columns of the nodes besides their offsets
+    public boolean positions;
+    // Write the names, literals and macro codenames once in a table, see StringTable
+    public boolean stringTable;
+    // Files of a batch request, see BatchProcessor
+    public DriverRequest[] files;
+    // Position of the file in its batch, written back in the response
+    public Integer index;
+
+    public DriverRequest() {}
 
-    public DriverRequest() {} // Dummy constructor, jackson needs this
     static DriverRequest load(String in) throws RequestLoadException {
         // NOTE: If we add new protocols this need to be decoupled from jackson through an
         // intermediate interface (IExchangeFormatReader) like DriverResponse is, but for now with a single protocol is overkill
         // to add more layers
-        ObjectMapper mapper = new ObjectMapper();
-        try {
-            return mapper.readValue(in, DriverRequest.class);
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            return load(parser);
         } catch (IOException e) {
             throw new DriverRequest.RequestLoadException(e);
         }
     }
+
+    static DriverRequest load(byte[] in, int offset, int length) throws RequestLoadException {
+        try (JsonParser parser = jsonFactory.createParser(in, offset, length)) {
+            return load(parser);
+        } catch (IOException e) {
+            throw new DriverRequest.RequestLoadException(e);
+        }
+    }
+
+    private static DriverRequest load(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("the request must be a JSON object");
+        }
+        return loadObject(parser);
+    }
+
+    private static DriverRequest loadObject(JsonParser parser) throws IOException {
+        DriverRequest request = new DriverRequest();
+        // Content given before the encoding, decoded at the end if it was base64
+        boolean pendingBase64 = false;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            if (value == JsonToken.VALUE_NULL) {
+                continue;
+            }
+
+            switch (field) {
+                case "action":
+                    request.action = parser.getText();
+                    break;
+                case "language":
+                    request.language = parser.getText();
+                    break;
+                case "languageVersion":
+                    request.languageVersion = parser.getText();
+                    break;
+                case "encoding":
+                    request.encoding = parser.getText();
+                    break;
+                case "format":
+                    request.format = parser.getText();
+                    break;
+                case "timeout":
+                    request.timeout = parser.getLongValue();
+                    break;
+                case "outline":
+                    request.outline = parser.getValueAsBoolean();
+                    break;
+                case "projection":
+                    request.projection = Projection.load(parser);
+                    break;
+                case "metrics":
+                    request.metrics = parser.getValueAsBoolean();
+                    break;
+                case "positions":
+                    request.positions = parser.getValueAsBoolean();
+                    break;
+                case "stringTable":
+                    request.stringTable = parser.getValueAsBoolean();
+                    break;
+                case "files":
+                    request.files = loadFiles(parser);
+                    break;
+                case "content":
+                    if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                        throw new IOException("the content must be a string");
+                    }
+                    if (request.isBase64()) {
+                        request.content = decodeUTF8(parser.getBinaryValue());
+                    } else {
+                        // The parser already has the unescaped text in its own buffer
+                        request.content = Arrays.copyOfRange(parser.getTextCharacters(),
+                                parser.getTextOffset(), parser.getTextOffset() + parser.getTextLength());
+                        pendingBase64 = request.encoding == null;
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        if (pendingBase64 && request.isBase64()) {
+            request.content = decodeBase64(request.content);
+        }
+        return request;
+    }
+
+    private static DriverRequest[] loadFiles(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            throw new IOException("the batch files must be an array of requests");
+        }
+        List<DriverRequest> files = new ArrayList<DriverRequest>();
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+            DriverRequest file = loadObject(parser);
+            file.index = files.size();
+            files.add(file);
+        }
+        if (token != JsonToken.END_ARRAY) {
+            throw new IOException("every batch file must be a JSON object");
+        }
+        return files.toArray(new DriverRequest[files.size()]);
+    }
+
+    // Options not given by a file of a batch are taken from the batch
+    void inherit(DriverRequest batch) {
+        if (language == null) {
+            language = batch.language;
+        }
+        if (languageVersion == null) {
+            languageVersion = batch.languageVersion;
+        }
+        if (format == null) {
+            format = batch.format;
+        }
+        if (timeout == null) {
+            timeout = batch.timeout;
+        }
+        if (projection == Projection.ALL) {
+            projection = batch.projection;
+        }
+        outline = outline || batch.outline;
+        metrics = metrics || batch.metrics;
+        positions = positions || batch.positions;
+        stringTable = stringTable || batch.stringTable;
+    }
+
+    boolean isBase64() {
+        return ENCODING_BASE64.equalsIgnoreCase(encoding);
+    }
+
+    private static char[] decodeBase64(char[] encoded) throws IOException {
+        byte[] ascii = new byte[encoded.length];
+        for (int i = 0; i < encoded.length; i++) {
+            ascii[i] = (byte) encoded[i];
+        }
+        try {
+            return decodeUTF8(Base64.getMimeDecoder().decode(ascii));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("invalid base64 content", e);
+        }
+    }
+
+    private static char[] decodeUTF8(byte[] bytes) throws CharacterCodingException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = decoder.decode(ByteBuffer.wrap(bytes));
+        if (chars.hasArray() && chars.arrayOffset() == 0 && chars.array().length == chars.remaining()) {
+            return chars.array();
+        }
+        char[] result = new char[chars.remaining()];
+        chars.get(result);
+        return result;
+    }
 }
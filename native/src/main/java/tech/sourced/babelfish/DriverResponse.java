@@ -1,11 +1,21 @@
 package tech.sourced.babelfish;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import org.eclipse.cdt.core.parser.ParserLanguage;
+import org.eclipse.cdt.core.parser.ParserMode;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 
+// The reduced flag, the status and the errors go after the AST since they can be set
+// while serializing it
+@JsonPropertyOrder({"index", "driver", "language", "languageVersion", "stats", "ast",
+        "reduced", "status", "errors", "strings", "metrics"})
 public class DriverResponse {
     static class ResponseSendException extends IOException {
         private final static String CDT_PACKAGE = "org.eclipse.cdt";
@@ -48,6 +58,12 @@ public class DriverResponse {
         }
     }
 
+    // Share of the time budget the complete parse can use, so a cancelled parse leaves
+    // time for the retry without the function bodies and for the serialization
+    private static final int COMPLETE_PARSE_PERCENT = 60;
+    // The retry is skipped when less than this share of the budget is left
+    private static final int MIN_RETRY_PERCENT = 10;
+
     enum Status {
         ok {
             @Override public String toString() {
@@ -63,18 +79,36 @@ public class DriverResponse {
             @Override public String toString() {
                 return "fatal";
             }
+        },
+        // The time budget of the request was exceeded; the AST, if any, is incomplete
+        timeout {
+            @Override public String toString() {
+                return "timeout";
+            }
         }
     }
 
+    // Position of the file in its batch, only written for batch files
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer index;
     public String driver = "1.0.0";
     public String language = "C++";
     public String languageVersion = "14";
     public Status status = Status.ok;
     public ArrayList<String> errors = new ArrayList<String>(0);
+    // Process counters in the Prometheus text format, only for the stats action
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String stats;
     @JsonProperty("ast")
 
     private TranslationUnit translationUnit;
     private IExchangeFormatWritter formatWritter;
+    private Projection projection = Projection.ALL;
+    final RequestMetrics metrics = new RequestMetrics();
+    private boolean withMetrics;
+    private boolean positions;
+    private boolean stringTable;
+    private boolean compactTree;
 
     DriverResponse(IExchangeFormatWritter mapper) {
         this.formatWritter = mapper;
@@ -87,8 +121,160 @@ public class DriverResponse {
         this.formatWritter = mapper;
     }
 
-    void parseCode(EclipseCPPParser parser, String source) {
+    // Must be set before parseCode since the comment map is only built when needed
+    void setProjection(Projection projection) {
+        this.projection = projection;
+    }
+
+    // Writes the metrics of the request after the AST
+    void setWithMetrics(boolean withMetrics) {
+        this.withMetrics = withMetrics;
+    }
+
+    // Writes the lines and columns of the nodes besides their offsets
+    void setPositions(boolean positions) {
+        this.positions = positions;
+    }
+
+    // Writes the names, literals and macro codenames as indexes in a table of strings
+    // written after the AST
+    void setStringTable(boolean stringTable) {
+        this.stringTable = stringTable;
+    }
+
+    // Serializes the AST to a MapNode right after parsing, see TranslationUnit.compact
+    void setCompactTree(boolean compactTree) {
+        this.compactTree = compactTree;
+    }
+
+    void parseCode(EclipseCPPParser parser, char[] source) {
         translationUnit = parser.parseCPP(source);
+        translationUnit.source = source;
+    }
+
+    /**
+     * Parses the source with a time budget of timeoutMillis from now for the whole
+     * request: the complete parse can use COMPLETE_PARSE_PERCENT of it and, if it's
+     * cancelled, the source is parsed again skipping the function bodies, which is much
+     * cheaper, with the time left; the retry is skipped if less than MIN_RETRY_PERCENT of
+     * the budget is left. Either way the response is sent with the timeout status. A
+     * translation unit that CDT returned incomplete after the cancellation is used as is.
+     * The serialization gets whatever the parsing left, see JsonASTVisitor.setDeadline.
+     *
+     * ParserMode.STRUCTURAL_PARSE gives the outline: the function bodies are skipped and
+     * serialized as empty placeholders with their offsets.
+     *
+     * With reduced set the source is parsed skipping the function bodies, as in the
+     * outline, the comment map isn't built and the output won't have comments, macro
+     * attribution nor preprocessor statements, see MemoryGovernor. The comment map isn't
+     * built either when the projection drops the comments.
+     */
+    void parseCode(EclipseCPPParser parser, char[] source, ParserLanguage lang,
+                   ParserMode mode, long timeoutMillis, boolean reduced) {
+        if (lang == ParserLanguage.C) {
+            language = "C";
+        }
+        if (reduced) {
+            // The bodies are most of the AST, which is what doesn't fit
+            mode = ParserMode.STRUCTURAL_PARSE;
+        }
+        boolean withComments = !reduced && projection.hasComments();
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        // Without a retry the parse can use the whole budget
+        long parseMillis = timeoutMillis > 0 && mode != ParserMode.STRUCTURAL_PARSE ?
+                Math.max(1, timeoutMillis * COMPLETE_PARSE_PERCENT / 100) :
+                timeoutMillis;
+        try {
+            translationUnit = parser.parse(source, lang, mode, parseMillis, withComments,
+                    metrics);
+        } catch (EclipseCPPParser.ParseTimeoutException e) {
+            status = Status.timeout;
+            errors.add(e.getMessage());
+            translationUnit = e.partial;
+            long leftMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (translationUnit == null && mode != ParserMode.STRUCTURAL_PARSE) {
+                if (leftMillis <= 0 || leftMillis < timeoutMillis * MIN_RETRY_PERCENT / 100) {
+                    errors.add("no time left to retry without the function bodies");
+                } else {
+                    errors.add("retrying without the function bodies");
+                    mode = ParserMode.STRUCTURAL_PARSE;
+                    try {
+                        translationUnit = parser.parse(source, lang, mode, leftMillis,
+                                withComments, metrics);
+                    } catch (EclipseCPPParser.ParseTimeoutException retryError) {
+                        errors.add(retryError.getMessage());
+                        translationUnit = retryError.partial;
+                    }
+                }
+            }
+        }
+
+        if (translationUnit != null) {
+            translationUnit.timeoutMillis = timeoutMillis;
+            translationUnit.deadlineNanos = deadlineNanos;
+            translationUnit.reduced = reduced;
+            translationUnit.outline = mode == ParserMode.STRUCTURAL_PARSE;
+            translationUnit.projection = projection;
+            translationUnit.source = source;
+            translationUnit.positions = positions;
+            translationUnit.strings = stringTable ? new StringTable() : null;
+            if (compactTree) {
+                translationUnit.compact();
+            }
+        }
+    }
+
+    // For the writters that don't serialize the response through Jackson; null if the
+    // code wasn't parsed or after an error
+    TranslationUnit translationUnit() {
+        return translationUnit;
+    }
+
+    // Set when the request was parsed without the function bodies and serialized without
+    // comments, macros nor preprocessor statements to save memory, or when the heap went
+    // over budget while serializing, which only drops the macro attribution of the nodes
+    // left (see JsonASTVisitor.checkBudgets); only written in these cases
+    @JsonProperty("reduced")
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    boolean isReduced() {
+        return translationUnit != null && translationUnit.reduced;
+    }
+
+    // A serialization timeout keeps the AST written until then and is reported as a
+    // timeout, like the parsing ones. The getters don't change the response, so they
+    // give the same in any order; send() keeps the timeout in status and errors
+    @JsonProperty("status")
+    Status getStatus() {
+        return serializationTimeout() != null ? Status.timeout : status;
+    }
+
+    @JsonProperty("errors")
+    List<String> getErrors() {
+        String timeout = serializationTimeout();
+        if (timeout == null) {
+            return errors;
+        }
+        List<String> withTimeout = new ArrayList<String>(errors);
+        withTimeout.add(timeout);
+        return withTimeout;
+    }
+
+    private String serializationTimeout() {
+        return translationUnit != null ? translationUnit.serializationTimeout : null;
+    }
+
+    // Only complete after writing the AST
+    @JsonProperty("strings")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    StringTable getStrings() {
+        return translationUnit != null ? translationUnit.strings : null;
+    }
+
+    // Written last since the serialization time is only known after writing the AST
+    @JsonProperty("metrics")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    RequestMetrics getMetrics() {
+        return withMetrics ? metrics : null;
     }
 
     // Note: since we're using the System.out output stream with Jackson, output will
@@ -101,10 +287,17 @@ public class DriverResponse {
             formatWritter.writeValue(this);
             OutputStream byteOut = formatWritter.getOutputStream();
             byteOut.flush();
-            System.out.write('\n');
         } catch (IOException e) {
             throw new DriverResponse.ResponseSendException(e);
         }
+
+        // For the metrics and the cache, which read the fields
+        String timeout = serializationTimeout();
+        if (timeout != null) {
+            status = Status.timeout;
+            errors.add(timeout);
+            translationUnit.serializationTimeout = null;
+        }
     }
 
     void sendError(Exception e, String errorString) throws IOException {
@@ -116,7 +309,9 @@ public class DriverResponse {
         e.printStackTrace(pw);
         errors.add(sw.toString());
 
-        if (e instanceof ResponseSendException) {
+        if (isTimeout(e)) {
+            status = Status.timeout;
+        } else if (e instanceof ResponseSendException) {
             status = ((ResponseSendException)e).isCdtCastException() ?
                     Status.error :
                     Status.fatal;
@@ -126,4 +321,13 @@ public class DriverResponse {
 
         send();
     }
+
+    private static boolean isTimeout(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof JsonASTVisitor.SerializationTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -20,9 +20,39 @@ import org.eclipse.cdt.internal.core.parser.scanner.CPreprocessor;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 class EclipseCPPParser {
-    NodeCommentMap commentMap;
+    /**
+     * Thrown when the parsing took longer than its time budget. CDT could have returned
+     * the translation unit built until the cancellation, in that case it's in partial.
+     */
+    static class ParseTimeoutException extends Exception {
+        final TranslationUnit partial;
+
+        ParseTimeoutException(long timeoutMillis, TranslationUnit partial, Throwable cause) {
+            super("parsing took more than " + timeoutMillis + " ms", cause);
+            this.partial = partial;
+        }
+    }
+
+    // Cancels the parsers that exceed their time budget. A single thread is enough since
+    // the task only sets a flag on the parser. Cancelled tasks are removed right away,
+    // otherwise they would keep their parser (and its AST) until their delay expires.
+    private static final ScheduledThreadPoolExecutor canceller = createCanceller();
+
+    private static ScheduledThreadPoolExecutor createCanceller() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread t = new Thread(runnable, "parse-canceller");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
     private static final ScannerInfo GNU_SCANNER_INFO = new ScannerInfo(getGnuMap());
 
     private static Map<String, String> getGnuMap() {
@@ -36,7 +66,11 @@ class EclipseCPPParser {
         return map;
     }
 
-    private static IScanner createScanner(String code, ParserLanguage lang, IScannerInfo scannerInfo) {
+    // Name given to the parsed source; requests don't have a file path and the source is
+    // never written anywhere so any constant is good
+    private static final String SOURCE_PATH = "<source>";
+
+    private static IScanner createScanner(char[] code, ParserLanguage lang, IScannerInfo scannerInfo) {
 
         IScannerExtensionConfiguration configuration;
         if (lang == ParserLanguage.C) {
@@ -45,36 +79,130 @@ class EclipseCPPParser {
             configuration = GPPScannerExtensionConfiguration.getInstance(scannerInfo);
         }
         IScanner scanner;
-        FileContent fileContent = FileContent.create(code, code.toCharArray());
+        // The char array is used directly by the scanner, without copies
+        FileContent fileContent = FileContent.create(SOURCE_PATH, code);
         scanner = new CPreprocessor(fileContent, scannerInfo, lang, new NullLogService(), configuration,
                 IncludeFileContentProvider.getSavedFilesProvider());
         return scanner;
     }
 
     TranslationUnit parseCPP(String code) {
+        return parseCPP(code.toCharArray());
+    }
+
+    TranslationUnit parseCPP(char[] code) {
+        return toUnit(parseCPPUnit(code), true);
+    }
+
+    // Request languages parsed with the GNU C parser, which is much cheaper than the C++
+    // one for plain C since it doesn't need the ambiguity resolution; the rest of the
+    // aliases (CUDA, Metal...) are C++ dialects and the default when it's not given is C++
+    static ParserLanguage languageOf(String requestLanguage) {
+        return "C".equalsIgnoreCase(requestLanguage) ? ParserLanguage.C : ParserLanguage.CPP;
+    }
+
+    TranslationUnit parse(char[] code, ParserLanguage lang, ParserMode mode, long timeoutMillis,
+                          boolean withComments) throws ParseTimeoutException {
+        return parse(code, lang, mode, timeoutMillis, withComments, new RequestMetrics());
+    }
+
+    /**
+     * Parses with the given language and mode, cancelling the parser if it takes more
+     * than timeoutMillis (0 or less means no limit). The comment map is only built if
+     * withComments is set. The time of every phase is added to metrics, which is also
+     * the one of the returned unit.
+     */
+    TranslationUnit parse(char[] code, ParserLanguage lang, ParserMode mode, long timeoutMillis,
+                          boolean withComments, RequestMetrics metrics)
+            throws ParseTimeoutException {
+        long start = System.nanoTime();
+        AbstractGNUSourceCodeParser parser = lang == ParserLanguage.C ?
+                createCParser(code, mode) :
+                createCPPParser(code, mode);
+        metrics.addSince(RequestMetrics.Phase.scanner, start);
+
+        if (timeoutMillis <= 0) {
+            start = System.nanoTime();
+            IASTTranslationUnit parsed = parser.parse();
+            metrics.addSince(RequestMetrics.Phase.parse, start);
+            return toUnit(parsed, withComments, metrics);
+        }
+
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        ScheduledFuture<?> timer = canceller.schedule(() -> {
+            cancelled.set(true);
+            parser.cancel();
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        IASTTranslationUnit parsed;
+        start = System.nanoTime();
+        try {
+            parsed = parser.parse();
+        } catch (ParseError e) {
+            if (cancelled.get()) {
+                throw new ParseTimeoutException(timeoutMillis, null, e);
+            }
+            throw e;
+        } finally {
+            timer.cancel(false);
+            metrics.addSince(RequestMetrics.Phase.parse, start);
+        }
+
+        // The cancellation could have been noticed without failing, leaving a truncated unit
+        if (cancelled.get()) {
+            throw new ParseTimeoutException(timeoutMillis,
+                    toUnit(parsed, withComments, metrics), null);
+        }
+        return toUnit(parsed, withComments, metrics);
+    }
+
+    private TranslationUnit toUnit(IASTTranslationUnit parsed, boolean withComments) {
+        return toUnit(parsed, withComments, new RequestMetrics());
+    }
+
+    private TranslationUnit toUnit(IASTTranslationUnit parsed, boolean withComments,
+                                   RequestMetrics metrics) {
+        long start = System.nanoTime();
+        // Kept only by the unit: the parser is reused between requests and would retain
+        // the previous AST through it
+        NodeCommentMap commentMap = withComments ?
+                ASTCommenter.getCommentedNodeMap(parsed) : null;
+        metrics.addSince(RequestMetrics.Phase.comments, start);
+
+        TranslationUnit unit = new TranslationUnit(parsed, commentMap);
+        unit.metrics = metrics;
+        return unit;
+    }
+
+    // Only the CDT parsing, without the comment map
+    IASTTranslationUnit parseCPPUnit(char[] code) {
+        return createCPPParser(code, ParserMode.COMPLETE_PARSE).parse();
+    }
+
+    private static AbstractGNUSourceCodeParser createCPPParser(char[] code, ParserMode mode) {
         AbstractGNUSourceCodeParser parser;
         ICPPParserExtensionConfiguration config;
         IScanner scanner = createScanner(code, ParserLanguage.CPP, GNU_SCANNER_INFO);
         config = new GPPParserExtensionConfiguration();
-        parser = new GNUCPPSourceParser(scanner, ParserMode.COMPLETE_PARSE, new NullLogService(),
+        parser = new GNUCPPSourceParser(scanner, mode, new NullLogService(),
                 config, null);
         parser.setMaximumTrivialExpressionsInAggregateInitializers(Integer.MAX_VALUE);
+        return parser;
+    }
 
-        IASTTranslationUnit parsed = parser.parse();
-        commentMap = ASTCommenter.getCommentedNodeMap(parsed);
-        return new TranslationUnit(parsed, commentMap);
+    TranslationUnit parseC(char[] code) {
+        return toUnit(createCParser(code, ParserMode.COMPLETE_PARSE).parse(), true);
     }
 
-    IASTTranslationUnit parseC(String code) {
+    private static AbstractGNUSourceCodeParser createCParser(char[] code, ParserMode mode) {
         AbstractGNUSourceCodeParser parser;
         ICParserExtensionConfiguration config;
         IScanner scanner = createScanner(code, ParserLanguage.C, GNU_SCANNER_INFO);
         config = new GCCParserExtensionConfiguration();
-        parser = new GNUCSourceParser(scanner, ParserMode.COMPLETE_PARSE, new NullLogService(),
+        parser = new GNUCSourceParser(scanner, mode, new NullLogService(),
                 config, null);
         parser.setMaximumTrivialExpressionsInAggregateInitializers(Integer.MAX_VALUE);
-        // FIXME: add commentMap
-        return parser.parse();
+        return parser;
     }
 
     void debugPrintAST(String code)
@@ -133,7 +261,7 @@ class EclipseCPPParser {
             System.out.println(macroExpansion.getMacroDefinition());
         }
         System.out.println("\nAST Tree:");
-        printTree(translationUnit, 1);
+        printTree(translationUnit, tuWrapper.commentMap, 1);
 
     }
 
@@ -155,14 +283,17 @@ class EclipseCPPParser {
         return location;
     }
 
+    // See SnippetProvider, which does the same without copying the whole signature
     public static String getSnippet(IASTNode node) {
-        String snippet = node.getRawSignature().replaceAll("\n", " \\ ");
-        int maxlen = node.getRawSignature().length();
+        String signature = node.getRawSignature();
+        // Newlines are written as two spaces
+        String snippet = signature.replace("\n", "  ");
+        int maxlen = signature.length();
         if (maxlen > 20) maxlen = 20;
         return snippet.substring(0, maxlen) + (maxlen == 20 ? "..." : "");
     }
 
-    private void printTree(IASTNode node, int index) {
+    private void printTree(IASTNode node, NodeCommentMap commentMap, int index) {
         // FIXME: move the comment extraction and this doc to another method
         // FIXME: comments at the start of the line doesn't seem to be extracted by the
         // commentMap, add it ourselves to the IASTTranslationUnit
@@ -229,7 +360,7 @@ class EclipseCPPParser {
         System.out.println("");
 
         for (IASTNode iastNode : children)
-            printTree(iastNode, index + 1);
+            printTree(iastNode, commentMap, index + 1);
     }
 
     static boolean isVisible(IASTNode current) {
@@ -0,0 +1,48 @@
+package tech.sourced.babelfish;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Response formats that can be requested with the "format" field of the request.
+ */
+enum ExchangeFormat {
+    JSON {
+        @Override
+        IExchangeFormatWritter createWritter(OutputStream out) throws IOException {
+            return new TranslationUnitJSONMapper(false, out);
+        }
+    },
+    CBOR {
+        @Override
+        IExchangeFormatWritter createWritter(OutputStream out) throws IOException {
+            return new TranslationUnitCBORMapper(out);
+        }
+    },
+    SMILE {
+        @Override
+        IExchangeFormatWritter createWritter(OutputStream out) throws IOException {
+            return new TranslationUnitSmileMapper(out);
+        }
+    },
+    COLUMNAR {
+        @Override
+        IExchangeFormatWritter createWritter(OutputStream out) throws IOException {
+            return new TranslationUnitColumnarWritter(out);
+        }
+    };
+
+    abstract IExchangeFormatWritter createWritter(OutputStream out) throws IOException;
+
+    // JSON is used when no format is given
+    static ExchangeFormat fromName(String name) throws IOException {
+        if (name == null || name.isEmpty()) {
+            return JSON;
+        }
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("unknown response format: " + name);
+        }
+    }
+}
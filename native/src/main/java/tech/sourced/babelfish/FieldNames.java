@@ -0,0 +1,51 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * Keys written for every node, and the IASTClass value of every node class, encoded once
+ * for the whole process. Jackson writes a SerializedString by copying its cached UTF-8
+ * (or quoted chars) form instead of escaping and encoding the String again, and the
+ * Smile generator uses it directly for its shared names. SerializedString is safe to
+ * share between threads. The names of the child properties are kept with their accessor,
+ * see ChildrenAccessorRegistry.
+ */
+final class FieldNames {
+    static final SerializableString IAST_CLASS = new SerializedString("IASTClass");
+    static final SerializableString LOC_OFFSET_START = new SerializedString("LocOffsetStart");
+    static final SerializableString LOC_OFFSET_END = new SerializedString("LocOffsetEnd");
+    static final SerializableString LOC_LINE_START = new SerializedString("LocLineStart");
+    static final SerializableString LOC_COL_START = new SerializedString("LocColStart");
+    static final SerializableString LOC_LINE_END = new SerializedString("LocLineEnd");
+    static final SerializableString LOC_COL_END = new SerializedString("LocColEnd");
+    static final SerializableString EXPANDED_FROM_MACRO =
+            new SerializedString("ExpandedFromMacro");
+    static final SerializableString NAME = new SerializedString("Name");
+    static final SerializableString COMMENTS = new SerializedString("Comments");
+    static final SerializableString COMMENT = new SerializedString("Comment");
+    static final SerializableString IS_BLOCK_COMMENT = new SerializedString("IsBlockComment");
+    static final SerializableString PROP_TYPE_NODE = new SerializedString("Prop_TypeNode");
+
+    // Used by TranslationUnitSerializer
+    static final SerializableString SNIPPET = new SerializedString("Snippet");
+    static final SerializableString ROLE = new SerializedString("Role");
+    static final SerializableString LOC_OFFSET_LENGTH = new SerializedString("LocOffsetLength");
+    static final SerializableString SYMBOL_NAME = new SerializedString("SymbolName");
+    static final SerializableString CHILDS = new SerializedString("childs");
+
+    private static final ClassValue<SerializableString> classNames =
+            new ClassValue<SerializableString>() {
+                @Override
+                protected SerializableString computeValue(Class<?> type) {
+                    return new SerializedString(type.getSimpleName());
+                }
+            };
+
+    private FieldNames() {}
+
+    // The simple name of the class, as written in IASTClass
+    static SerializableString className(Class<?> nodeClass) {
+        return classNames.get(nodeClass);
+    }
+}
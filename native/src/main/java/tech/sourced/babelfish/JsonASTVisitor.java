@@ -1,14 +1,13 @@
 package tech.sourced.babelfish;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
 import org.eclipse.cdt.core.dom.ast.*;
 import org.eclipse.cdt.core.dom.ast.c.*;
 import org.eclipse.cdt.core.dom.ast.cpp.*;
 import org.eclipse.cdt.internal.core.dom.rewrite.commenthandler.NodeCommentMap;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.*;
 
 /// Visitor pattern implementation for the CPP AST. This will write every
@@ -24,13 +23,19 @@ import java.util.*;
 /// because the possible values are not even declared in an enum but as final int
 /// class members.
 
-public class JsonASTVisitor extends ASTVisitor {
+public class JsonASTVisitor extends ASTVisitor implements ICASTVisitor {
+    static class SerializationTimeoutException extends IOException {
+        SerializationTimeoutException(long timeoutMillis) {
+            super("serialization went over the request budget of " + timeoutMillis + " ms");
+        }
+    }
+
+    // The clock and the heap are only checked once every this many nodes
+    private static final int BUDGET_CHECK_INTERVAL = 1024;
 
     private JsonGenerator json;
-    private NodeCommentMap commentMap;
+    private SortedComments comments;
     private boolean verboseJson = false;
-    private HashSet<String> skipMethods;
-    private Hashtable<String, Vector<ChildrenTypeCacheValue>> childrenMethodsCache;
     // Used to store parameter type nodes and reparent them as children of the
     // parameter itself instead of a sibling
     private Stack<IASTDeclSpecifier> typesVisited;
@@ -43,48 +48,35 @@ public class JsonASTVisitor extends ASTVisitor {
     IOException error;
     boolean hasError = false;
 
-    private MacroExpansionContainer macroExpansionContainer;
-    // The visitChildren method uses reflection to get the methods and return values
-    // to retrieve children and assign them to properties instead of a flat list. That is
-    // slow so we'll cache every inspected node using this class and the childrenMethod
-    // cache below.
-    private class ChildrenTypeCacheValue
-    {
-        public String propertyName;
-        public Method method;
-        public String methodName;
-        public boolean returnsArray;
-
-        ChildrenTypeCacheValue(String propName, Method meth, String methName, boolean retArray)
-        {
-            propertyName = propName;
-            method = meth;
-            methodName = methName;
-            returnsArray = retArray;
-        }
-    }
-
-    // Used to sort arrays of Methods, see the comment in visitChildren
-    private class MethodWrapper implements Comparable<MethodWrapper>
-    {
-        Method method;
-        String name;
-
-        MethodWrapper(Method meth) {
-            method = meth;
-            name = meth.getName();
-        }
+    private long timeoutMillis;
+    private long deadlineNanos;
+    private int nodesUntilBudgetCheck = BUDGET_CHECK_INTERVAL;
+    // Without comments, macro attribution nor preprocessor statements, see MemoryGovernor
+    private boolean reduced;
+    private MemoryGovernor memoryGovernor;
+    // The function bodies were skipped by the parser, see setOutline
+    private boolean outline;
+    // Nodes and data to write, and depth of the node being written (the translation unit
+    // is at 0)
+    private Projection projection = Projection.ALL;
+    private int depth = -1;
+    // The parent of the nodes being visited isn't written, see passThrough
+    private boolean passingThrough;
+    // Property of the nearest written ancestor where the included nodes under the nodes
+    // that aren't written go, and whether its array was already opened, see writeHoisted
+    private SerializableString hoistKey;
+    private boolean hoistOpened;
+    private RequestMetrics metrics = new RequestMetrics();
+    private SnippetProvider snippets = new SnippetProvider(null);
+    // Lines and columns are only written when set
+    private LineIndex lines;
 
-        @Override
-        public int compareTo(MethodWrapper m) {
-            return m.name.compareTo(name);
-        }
-    }
+    private MacroExpansionContainer macroExpansionContainer;
 
     JsonASTVisitor(JsonGenerator json, NodeCommentMap commentMap) {
         super();
         this.json = json;
-        this.commentMap = commentMap;
+        this.comments = SortedComments.of(commentMap);
 
         shouldVisitArrayModifiers = true;
         shouldVisitBaseSpecifiers = true;
@@ -103,30 +95,87 @@ public class JsonASTVisitor extends ASTVisitor {
         shouldVisitTranslationUnit = true;
         shouldVisitTypeIds = true;
         shouldVisitVirtSpecifiers = true;
+        // C designated initializers are only dispatched to ICASTVisitor implementations,
+        // otherwise their children would be written without their own object
+        shouldVisitDesignators = true;
         // FIXME: change when problem visiting is activated (and remove getProblem
-        // from skipMethods below)
+        // from ChildrenAccessorRegistry)
         shouldVisitProblems = false;
-        skipMethods = new HashSet<String>(Arrays.asList("getClass", "getChildren",
-                    "getCompletionContext", "getContainingFilename", "getFileLocation",
-                    "getImageLocation", "getOffset", "getParent", "getPropertyInParent",
-                    "getTranslationUnit", "getLeadingSyntax", "getLength",
-                    "getLinkage", "getOriginalNode", "getRawSignature",
-                    "getTrailingSyntax", "getSyntax", "getNodeLocations",
-                    "getExecution", "getDependencyTree", "getLastName",
-                    "getAlignmentSpecifiers", "getAdapter", "getTypeStringCache",
-                    "getProblem", "getRoleForName", "getImplicitNames",
-                    // Called manually:
-                    "getIncludeDirectives", "getAllPreprocessorStatements", "getMacroExpansions",
-                    "getMacroDefinitions"
-                    //"getFunctionCallOperatorName", "getClosureTypeName"
-        ));
-        childrenMethodsCache = new Hashtable<String, Vector<ChildrenTypeCacheValue>>();
         macroExpansionContainer = new MacroExpansionContainer();
         typesVisited = new Stack<IASTDeclSpecifier>();
         if (doDebugLog)
             jsonDebugLog = new Vector<String>();
     }
 
+    // Aborts the serialization once System.nanoTime() goes past deadlineNanos, the end of
+    // the timeoutMillis budget of the request; a budget of 0 or less means no limit
+    void setDeadline(long deadlineNanos, long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    void setReduced(boolean reduced) {
+        this.reduced = reduced;
+    }
+
+    boolean isReduced() {
+        return reduced;
+    }
+
+    // In outline mode the function bodies are empty compound statements that only
+    // have the offsets of the skipped code; they're flagged with IsSkippedBody
+    void setOutline(boolean outline) {
+        this.outline = outline;
+    }
+
+    // Pruned subtrees are skipped before writing their property so they're never walked
+    void setProjection(Projection projection) {
+        this.projection = projection;
+        if (!projection.hasComments()) {
+            comments = SortedComments.of(null);
+        }
+    }
+
+    // Receives the node, comment and macro counters and the time of the macro indexing
+    void setMetrics(RequestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Writes the line and column of the start and the end of every location along with
+    // their offsets; the end is exclusive like LocOffsetEnd
+    void setLineIndex(LineIndex lines) {
+        this.lines = lines;
+    }
+
+    // Only used by the verbose output
+    void setSnippets(SnippetProvider snippets) {
+        this.snippets = snippets;
+    }
+
+    // Switches to the reduced output if the heap goes over budget while serializing
+    void setMemoryGovernor(MemoryGovernor governor) {
+        this.memoryGovernor = governor;
+    }
+
+    private void checkBudgets() throws IOException {
+        if (--nodesUntilBudgetCheck > 0) {
+            return;
+        }
+        nodesUntilBudgetCheck = BUDGET_CHECK_INTERVAL;
+
+        if (timeoutMillis > 0 && System.nanoTime() - deadlineNanos > 0) {
+            throw new SerializationTimeoutException(timeoutMillis);
+        }
+        if (!reduced && memoryGovernor != null && memoryGovernor.isOverBudget()) {
+            // The comments and preprocessor statements are written with the first nodes
+            // so by now only the macro attribution of the rest of the nodes is dropped.
+            // Release what it would have used.
+            reduced = true;
+            comments = SortedComments.of(null);
+            macroExpansionContainer = new MacroExpansionContainer();
+        }
+    }
+
     private void enableErrorState(IOException e) {
         error = e;
         hasError = true;
@@ -140,36 +189,131 @@ public class JsonASTVisitor extends ASTVisitor {
     // Wraps the common visiting boilerplate taking a lambda for the real
     // type-specific work
     private int visitWrapper(IASTNode node, VisitorFunc visitor) {
+        // Don't keep writing the siblings of the node that failed
+        if (hasError) {
+            return PROCESS_ABORT;
+        }
+        try {
+            checkBudgets();
+            // The translation unit is always written
+            Projection.Action action = depth < 0 ? Projection.Action.WRITE : childAction(node);
+            if (action == Projection.Action.WRITE)
+                writeNode(node, visitor);
+            else if (action == Projection.Action.DESCEND)
+                passThrough(node);
+        } catch (IOException e) {
+            enableErrorState(e);
+            return PROCESS_ABORT;
+        }
+        return PROCESS_SKIP;
+    }
+
+    private void writeNode(IASTNode node, VisitorFunc visitor) throws IOException {
+        openHoist();
+        // The properties of a written node are its own
+        boolean outerPassing = passingThrough;
+        SerializableString outerKey = hoistKey;
+        boolean outerOpened = hoistOpened;
+        passingThrough = false;
+        hoistKey = null;
+        hoistOpened = false;
         try {
             json.writeStartObject();
+            depth++;
+            metrics.nodes++;
             try {
                 serializeCommonData(node);
                 visitor.visit();
-                serializeAllCommentsOnce();
+                serializePendingComments(Integer.MAX_VALUE);
                 visitChildren(node);
             } finally {
+                depth--;
                 json.writeEndObject();
             }
-        } catch (IOException e) {
-            enableErrorState(e);
-            return PROCESS_ABORT;
+        } finally {
+            passingThrough = outerPassing;
+            hoistKey = outerKey;
+            hoistOpened = outerOpened;
+        }
+    }
+
+    // Walks the children of a node that isn't included without writing it, so the
+    // included nodes under it go to the property of its nearest written ancestor
+    private void passThrough(IASTNode node) throws IOException {
+        boolean outerPassing = passingThrough;
+        passingThrough = true;
+        depth++;
+        try {
+            visitChildren(node);
+        } finally {
+            depth--;
+            passingThrough = outerPassing;
+        }
+    }
+
+    // Visits nodes of which some aren't written: the written ones go in an array under
+    // key, opened with the first of them, or under the property of the nearest written
+    // ancestor when the parent isn't written either. Nothing is written without them.
+    private void writeHoisted(SerializableString key, VisitorFunc visit) throws IOException {
+        if (passingThrough) {
+            visit.visit();
+            return;
+        }
+
+        SerializableString outerKey = hoistKey;
+        boolean outerOpened = hoistOpened;
+        hoistKey = key;
+        hoistOpened = false;
+        try {
+            visit.visit();
+        } finally {
+            if (hoistOpened)
+                json.writeEndArray();
+            hoistKey = outerKey;
+            hoistOpened = outerOpened;
+        }
+    }
+
+    private void openHoist() throws IOException {
+        if (hoistKey != null && !hoistOpened) {
+            json.writeFieldName(hoistKey);
+            json.writeStartArray();
+            hoistOpened = true;
         }
-        return PROCESS_SKIP;
     }
 
 
     private void serializeLocation(IASTFileLocation loc) throws IOException {
-        if (loc != null) {
+        if (loc != null && projection.hasLocations()) {
             int offsetStart = loc.getNodeOffset();
-            json.writeNumberField("LocOffsetStart", offsetStart);
-            json.writeNumberField("LocOffsetEnd", offsetStart + loc.getNodeLength());
+            json.writeFieldName(FieldNames.LOC_OFFSET_START);
+            json.writeNumber(offsetStart);
+            json.writeFieldName(FieldNames.LOC_OFFSET_END);
+            json.writeNumber(offsetStart + loc.getNodeLength());
+
+            if (lines != null) {
+                serializePosition(FieldNames.LOC_LINE_START, FieldNames.LOC_COL_START,
+                        offsetStart);
+                serializePosition(FieldNames.LOC_LINE_END, FieldNames.LOC_COL_END,
+                        offsetStart + loc.getNodeLength());
+            }
         }
     }
 
+    private void serializePosition(SerializableString lineKey, SerializableString columnKey,
+                                   int offset) throws IOException {
+        int line = lines.lineOf(offset);
+        json.writeFieldName(lineKey);
+        json.writeNumber(line);
+        json.writeFieldName(columnKey);
+        json.writeNumber(lines.columnOf(offset, line));
+    }
+
     private void serializeCommonData(IASTNode node) throws IOException {
-        json.writeStringField("IASTClass", node.getClass().getSimpleName());
+        json.writeFieldName(FieldNames.IAST_CLASS);
+        json.writeString(FieldNames.className(node.getClass()));
         if (verboseJson)
-            json.writeStringField("Snippet", EclipseCPPParser.getSnippet(node));
+            json.writeStringField("Snippet", snippets.get(node));
 
         if (verboseJson) {
             ASTNodeProperty propInParent = node.getPropertyInParent();
@@ -179,87 +323,94 @@ public class JsonASTVisitor extends ASTVisitor {
         }
 
         // Check if the node resulted from a macro expansion
-        if (!(node instanceof IASTPreprocessorStatement)) {
+        if (!reduced && !(node instanceof IASTPreprocessorStatement)) {
             String expandedMacro = macroExpansionContainer.checkFromExpansion(node);
             if (expandedMacro != null) {
-                json.writeStringField("ExpandedFromMacro", expandedMacro);
+                json.writeFieldName(FieldNames.EXPANDED_FROM_MACRO);
+                json.writeString(expandedMacro);
             }
         }
 
         serializeLocation(node.getFileLocation());
     }
 
-    private void serializeCommentList(List<IASTComment> comments)
-        throws IOException {
-        if (comments != null && comments.size() > 0) {
-            json.writeFieldName("Comments");
-            json.writeStartArray();
-            try {
-                for (IASTComment comment : comments) {
-                    json.writeStartObject();
-                    try {
-                        json.writeStringField("IASTClass", "Comment");
-                        json.writeStringField("Comment", comment.toString());
-                        json.writeBooleanField("IsBlockComment", comment.isBlockComment());
-                        serializeLocation(comment.getFileLocation());
-                    } finally {
-                        json.writeEndObject();
-                    }
-                }
-            } finally {
-                json.writeEndArray();
-            }
-        }
-    }
-
-    private class SortByLocOffset implements Comparator<IASTComment>
-    {
-        public int compare(IASTComment a, IASTComment b)
-        {
-            return a.getFileLocation().getNodeOffset() - b.getFileLocation().getNodeOffset();
-        }
-    }
-
     /**
-     * serializeAllCommentsOnce serializes all extracted comments only once.
-     * After the call comment maps will be cleared.
+     * serializePendingComments serializes the comments starting before limitOffset
+     * that haven't been serialized yet. Since every node calls it with no limit,
+     * all the comments are written once on the first visited node.
      *
      * @throws IOException
      */
-    private void serializeAllCommentsOnce() throws IOException {
-        ArrayList<IASTComment> comments = new ArrayList<>();
-
-        commentMap.getLeadingMap().values().forEach(comments::addAll);
-        commentMap.getLeadingMap().clear();
-
-        commentMap.getFreestandingMap().values().forEach(comments::addAll);
-        commentMap.getFreestandingMap().clear();
-
-        commentMap.getTrailingMap().values().forEach(comments::addAll);
-        commentMap.getTrailingMap().clear();
-
-        Collections.sort(comments, new SortByLocOffset());
+    private void serializePendingComments(int limitOffset) throws IOException {
+        if (!comments.hasPendingBefore(limitOffset))
+            return;
 
-        serializeCommentList(comments);
+        json.writeFieldName(FieldNames.COMMENTS);
+        json.writeStartArray();
+        try {
+            while (comments.hasPendingBefore(limitOffset)) {
+                IASTComment comment = comments.next();
+                metrics.comments++;
+                json.writeStartObject();
+                try {
+                    json.writeFieldName(FieldNames.IAST_CLASS);
+                    json.writeString(FieldNames.COMMENT);
+                    json.writeFieldName(FieldNames.COMMENT);
+                    json.writeString(comment.toString());
+                    json.writeFieldName(FieldNames.IS_BLOCK_COMMENT);
+                    json.writeBoolean(comment.isBlockComment());
+                    serializeLocation(comment.getFileLocation());
+                } finally {
+                    json.writeEndObject();
+                }
+            }
+        } finally {
+            json.writeEndArray();
+        }
     }
 
-    private void writeChildProperty(IASTNode parent, Method method,
-            String propertyName, boolean isArray) throws IOException {
+    private void writeChildProperty(IASTNode parent,
+            ChildrenAccessorRegistry.ChildAccessor accessor) throws IOException {
+        Object value;
+        try {
+            value = accessor.getter.apply(parent);
+        } catch (RuntimeException e) {
+            // Some getters throw for nodes where they don't apply
+            return;
+        }
+
         try {
-            if (isArray) {
-                Object[] oChildren = (Object[])method.invoke(parent);
+            if (accessor.returnsArray) {
+                Object[] oChildren = (Object[])value;
 
                 if (oChildren == null || oChildren.length == 0 ||
                     !(oChildren[0] instanceof IASTNode))
                     return;
 
-                json.writeFieldName(propertyName);
+                if (passingThrough || descendsAny(oChildren)) {
+                    writeHoisted(accessor.propertyKey, () -> {
+                        for (Object oChild : oChildren) {
+                            IASTNode nChild = (IASTNode)oChild;
+                            if (nChild != null && childAction(nChild) != Projection.Action.PRUNE)
+                                nChild.accept(this);
+                        }
+                    });
+                    return;
+                }
+
+                int first = 0;
+                while (first < oChildren.length && !keepsChild((IASTNode)oChildren[first]))
+                    first++;
+                if (first == oChildren.length)
+                    return;
+
+                json.writeFieldName(accessor.propertyKey);
                 json.writeStartArray();
 
                 try {
-                    for(Object oChild : oChildren) {
-                        IASTNode nChild = (IASTNode)oChild;
-                        if (nChild == null)
+                    for (int i = first; i < oChildren.length; i++) {
+                        IASTNode nChild = (IASTNode)oChildren[i];
+                        if (!keepsChild(nChild))
                             continue;
 
                         nChild.accept(this);
@@ -270,22 +421,29 @@ public class JsonASTVisitor extends ASTVisitor {
             } else {
                 if (doDebugLog)
                     jsonDebugLog.add(parent.getClass().getSimpleName() +
-                            "." + propertyName);
-                Object oChild = method.invoke(parent);
+                            "." + accessor.propertyName);
+                Object oChild = value;
 
                 if (oChild == null || !(oChild instanceof IASTNode))
                     return;
 
-                if (shouldVisitImplicitNames || !(oChild instanceof IASTImplicitName)) {
-                    IASTNode nChild = (IASTNode)oChild;
-                    json.writeFieldName(propertyName);
-                    nChild.accept(this);
+                if (!shouldVisitImplicitNames && oChild instanceof IASTImplicitName)
+                    return;
+
+                IASTNode nChild = (IASTNode)oChild;
+                switch (childAction(nChild)) {
+                    case WRITE:
+                        if (!passingThrough)
+                            json.writeFieldName(accessor.propertyKey);
+                        nChild.accept(this);
+                        break;
+                    case DESCEND:
+                        writeHoisted(accessor.propertyKey, () -> nChild.accept(this));
+                        break;
+                    case PRUNE:
+                        break;
                 }
             }
-        } catch (IllegalAccessException e) {
-            return;
-        } catch (InvocationTargetException e) {
-            return;
         } catch (Exception e) {
             if (doDebugLog)
                 throw new IOException("jsonDebugLog: " +
@@ -295,58 +453,33 @@ public class JsonASTVisitor extends ASTVisitor {
         }
     }
 
-    private void visitChildren(IASTNode node) throws IOException {
-        String nodeClass = node.getClass().getSimpleName();
-        Vector<ChildrenTypeCacheValue> cached = childrenMethodsCache.get(nodeClass);
-
-        // Add this node's class methods to the cache
-        if (cached == null) {
-            cached = new Vector<ChildrenTypeCacheValue>();
-            childrenMethodsCache.put(nodeClass, cached);
-
-            // Order of getMethods() changes between runs so we need to do this to
-            // ensure that integration tests do not break
-            Method[] methods = node.getClass().getMethods();
-            List<MethodWrapper> methodWrappers = new Vector<MethodWrapper>();
-
-            for (Method m : methods) {
-                String mname = m.getName();
-
-                if (!mname.startsWith("get") || skipMethods.contains(mname)
-                        || m.getParameterCount() > 0)
-                    continue;
-
-                methodWrappers.add(new MethodWrapper(m));
-            }
-            Collections.sort(methodWrappers);
-
-            for (MethodWrapper mw : methodWrappers) {
-                String mname = mw.name;
-
-                String propName = "Prop_" + mname.substring(3);
-                Class<?> returnType = mw.method.getReturnType();
+    private Projection.Action childAction(IASTNode child) {
+        return projection.actionFor(child, depth + 1);
+    }
 
-                if (returnType.getName().indexOf("AST") == -1)
-                    continue;
+    private boolean keepsChild(IASTNode child) {
+        return child != null && childAction(child) == Projection.Action.WRITE;
+    }
 
-                if (doDebugLog)
-                    jsonDebugLog.add("Method_" + mw.method.getDeclaringClass().getSimpleName()
-                            + "." +mw.method.getName());
-                writeChildProperty(node, mw.method, propName, returnType.isArray());
-
-                // Add the node and method information to the cache
-                cached.add(new ChildrenTypeCacheValue(
-                        propName, mw.method, mname, returnType.isArray()
-                ));
-            }
+    private boolean descendsAny(Object[] children) {
+        for (Object child : children) {
+            if (child != null && childAction((IASTNode)child) == Projection.Action.DESCEND)
+                return true;
         }
+        return false;
+    }
 
-        for (ChildrenTypeCacheValue val : cached) {
+    // The methods returning children are inspected with reflection only once per node
+    // class for the whole process and called through generated accessors, see
+    // ChildrenAccessorRegistry
+    private void visitChildren(IASTNode node) throws IOException {
+        for (ChildrenAccessorRegistry.ChildAccessor val :
+                ChildrenAccessorRegistry.forClass(node.getClass())) {
             if (doDebugLog)
-                jsonDebugLog.add("Method_" + "cached_" +
+                jsonDebugLog.add("Method_" +
                         val.method.getDeclaringClass().getSimpleName()
                         + "." + val.method.getName());
-            writeChildProperty(node, val.method, val.propertyName, val.returnsArray);
+            writeChildProperty(node, val);
         }
     }
 
@@ -619,7 +752,8 @@ public class JsonASTVisitor extends ASTVisitor {
     @Override
     public int visit(IASTName node) {
         return visitWrapper((IASTNode)node, () -> {
-            json.writeStringField("Name", node.toString());
+            json.writeFieldName(FieldNames.NAME);
+            json.writeString(node.toString());
 
             if (shouldVisitImplicitNames && node instanceof IASTImplicitName) {
                 IASTImplicitName impl = (IASTImplicitName) node;
@@ -942,6 +1076,17 @@ public class JsonASTVisitor extends ASTVisitor {
 
     @Override
     public int visit(IASTDeclarator node) {
+        // CDT visits the parameter declarators itself, without going through
+        // writeChildProperty, so they're pruned here along with their type node. When
+        // they're walked without being written, the type node is walked too.
+        if (node.getParent() instanceof IASTParameterDeclaration && !keepsChild(node)) {
+            IASTDeclSpecifier typeNode = typesVisited.empty() ? null : typesVisited.pop();
+            if (childAction(node) == Projection.Action.PRUNE)
+                return PROCESS_SKIP;
+            if (typeNode != null && visit_declSpec(typeNode) == PROCESS_ABORT)
+                return PROCESS_ABORT;
+        }
+
         return visitWrapper((IASTNode)node, () -> {
             if (node instanceof IASTStandardFunctionDeclarator) {
                 IASTStandardFunctionDeclarator impl = (IASTStandardFunctionDeclarator) node;
@@ -959,13 +1104,27 @@ public class JsonASTVisitor extends ASTVisitor {
             }
 
             if (node instanceof IASTDeclarator && !(node instanceof IASTFunctionDeclarator)) {
-                ICPPASTDeclarator impl = (ICPPASTDeclarator) node;
-                json.writeBooleanField("DeclaresParameterPack", impl.declaresParameterPack());
+                // The C declarators don't have parameter packs
+                if (node instanceof ICPPASTDeclarator) {
+                    ICPPASTDeclarator impl = (ICPPASTDeclarator) node;
+                    json.writeBooleanField("DeclaresParameterPack", impl.declaresParameterPack());
+                }
 
                 if (!typesVisited.empty()) {
                     // Reparent the type node here
-                    json.writeFieldName("Prop_TypeNode");
-                    visit_declSpec(typesVisited.pop());
+                    IASTDeclSpecifier typeNode = typesVisited.pop();
+                    switch (childAction(typeNode)) {
+                        case WRITE:
+                            json.writeFieldName(FieldNames.PROP_TYPE_NODE);
+                            visit_declSpec(typeNode);
+                            break;
+                        case DESCEND:
+                            writeHoisted(FieldNames.PROP_TYPE_NODE,
+                                    () -> visit_declSpec(typeNode));
+                            break;
+                        case PRUNE:
+                            break;
+                    }
                 } else {
                     json.writeNullField("Prop_TypeNode");
                 }
@@ -1220,6 +1379,10 @@ public class JsonASTVisitor extends ASTVisitor {
                 ICPPASTCatchHandler impl = (ICPPASTCatchHandler) node;
                 json.writeBooleanField("IsCatchAll", impl.isCatchAll());
             }
+
+            if (outline && node.getPropertyInParent() == IASTFunctionDefinition.FUNCTION_BODY) {
+                json.writeBooleanField("IsSkippedBody", true);
+            }
         });
     }
 
@@ -1236,6 +1399,7 @@ public class JsonASTVisitor extends ASTVisitor {
     // the macroExpansions hashtable so we can join the together later when
     // writing the MacroDefinition nodes
     private void storeMacroExpansions(IASTTranslationUnit unit) {
+        long start = System.nanoTime();
         IASTPreprocessorMacroExpansion[] expansions = unit.getMacroExpansions();
 
         for (IASTPreprocessorMacroExpansion exp : expansions) {
@@ -1243,6 +1407,8 @@ public class JsonASTVisitor extends ASTVisitor {
         }
 
         macroExpansionContainer.sortByStartOffset();
+        metrics.macroExpansions += expansions.length;
+        metrics.addSince(RequestMetrics.Phase.macros, start);
     }
 
     private void serializePreproStatements(IASTTranslationUnit unit) throws IOException {
@@ -1251,6 +1417,9 @@ public class JsonASTVisitor extends ASTVisitor {
         json.writeStartArray();
         try {
             for (IASTPreprocessorStatement stmt : stmts) {
+                if (!keepsChild(stmt))
+                    continue;
+
                 json.writeStartObject();
                 try {
                     serializeCommonData(stmt);
@@ -1359,6 +1528,8 @@ public class JsonASTVisitor extends ASTVisitor {
     @Override
     public int visit(IASTTranslationUnit node) {
         return visitWrapper((IASTNode)node, () -> {
+            if (reduced)
+                return;
             storeMacroExpansions(node);
             serializePreproStatements(node);
             macroExpansionContainer.clearMap();
@@ -1398,4 +1569,14 @@ public class JsonASTVisitor extends ASTVisitor {
     public int visit(IASTAttributeSpecifier node) {
         return visitWrapper((IASTNode)node, () -> {});
     }
+
+    @Override
+    public int visit(ICASTDesignator node) {
+        return visitWrapper((IASTNode)node, () -> {});
+    }
+
+    @Override
+    public int leave(ICASTDesignator node) {
+        return PROCESS_CONTINUE;
+    }
 }
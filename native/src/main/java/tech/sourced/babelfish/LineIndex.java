@@ -0,0 +1,65 @@
+package tech.sourced.babelfish;
+
+/**
+ * Offsets of the start of every line of a source, built once per request, to turn the
+ * node offsets into lines and columns. Both are 1-based and the columns count chars like
+ * the offsets do. Lines end at '\n', as for CDT.
+ *
+ * The nodes are written mostly in source order so every lookup first checks the line of
+ * the previous one and the next, and only then does a binary search. It keeps that
+ * cursor between lookups so it must not be shared between threads.
+ */
+final class LineIndex {
+    private final int[] lineStarts;
+    // Index in lineStarts of the line of the last lookup
+    private int cursor;
+
+    LineIndex(char[] source) {
+        int lines = 1;
+        for (char c : source) {
+            if (c == '\n') {
+                lines++;
+            }
+        }
+
+        lineStarts = new int[lines];
+        int line = 1;
+        for (int i = 0; i < source.length; i++) {
+            if (source[i] == '\n') {
+                lineStarts[line++] = i + 1;
+            }
+        }
+    }
+
+    int lineOf(int offset) {
+        if (containsOffset(cursor, offset)) {
+            return cursor + 1;
+        }
+        if (containsOffset(cursor + 1, offset)) {
+            return ++cursor + 1;
+        }
+
+        int low = 0;
+        int high = lineStarts.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (lineStarts[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        cursor = low;
+        return low + 1;
+    }
+
+    // The line must be the one of the offset
+    int columnOf(int offset, int line) {
+        return offset - lineStarts[line - 1] + 1;
+    }
+
+    private boolean containsOffset(int line, int offset) {
+        return line < lineStarts.length && lineStarts[line] <= offset &&
+                (line + 1 == lineStarts.length || offset < lineStarts[line + 1]);
+    }
+}
@@ -5,37 +5,22 @@ import org.eclipse.cdt.core.dom.ast.c.*;
 import org.eclipse.cdt.core.dom.ast.cpp.*;
 
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Hashtable;
-import java.util.List;
 import java.util.Vector;
 
 // Hold macro expansions and allows to check if a node if inside one
 class MacroExpansionContainer
 {
-    private class MacroExpansionLocation implements Comparable<MacroExpansionLocation>
-    {
-        public String macroCodename;
-        public int startOffset;
-        public int endOffset;
-
-        MacroExpansionLocation(String codeName, int startOffset, int endOffset)
-        {
-            this.macroCodename = codeName;
-            this.startOffset = startOffset;
-            this.endOffset = endOffset;
-        }
-
-        @Override
-            public int compareTo(MacroExpansionLocation other)
-            {
-                return this.startOffset < other.startOffset ? -1
-                    : this.startOffset > other.startOffset ? 1
-                    : 0;
-            }
-    }
-
-    private List<MacroExpansionLocation> macroExpansions;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Expansions are stored as parallel arrays; after sortByStartOffset they're sorted by
+    // start offset and maxEndOffsets[i] holds the biggest end offset of the expansions
+    // [0, i] so checkFromExpansion can use binary searches instead of a linear scan.
+    private String[] macroCodenames;
+    private int[] startOffsets;
+    private int[] endOffsets;
+    private int[] maxEndOffsets;
+    private int size;
     // Used to reparent macro expansions as children of macroDefinitions since they're
     // separate lists on CDT.
     private Hashtable<IASTPreprocessorMacroDefinition, Vector<IASTNodeLocation>> macroDef2Locations;
@@ -45,14 +30,27 @@ class MacroExpansionContainer
     MacroExpansionContainer()
     {
         macroDef2Locations = new Hashtable<IASTPreprocessorMacroDefinition, Vector<IASTNodeLocation>>();
-        macroExpansions = new Vector<MacroExpansionLocation>();
+        macroCodenames = new String[INITIAL_CAPACITY];
+        startOffsets = new int[INITIAL_CAPACITY];
+        endOffsets = new int[INITIAL_CAPACITY];
+        maxEndOffsets = new int[0];
     }
 
     private void addSingleExpansion(String macroCodename, int startOffset, int endOffset)
     {
         firstStartOffset = Math.min(startOffset, firstStartOffset);
         lastEndOffset = Math.max(endOffset, lastEndOffset);
-        macroExpansions.add(new MacroExpansionLocation(macroCodename, startOffset, endOffset));
+
+        if (size == startOffsets.length) {
+            int capacity = size * 2;
+            macroCodenames = Arrays.copyOf(macroCodenames, capacity);
+            startOffsets = Arrays.copyOf(startOffsets, capacity);
+            endOffsets = Arrays.copyOf(endOffsets, capacity);
+        }
+        macroCodenames[size] = macroCodename;
+        startOffsets[size] = startOffset;
+        endOffsets[size] = endOffset;
+        size++;
     }
 
     public void add(IASTPreprocessorMacroExpansion exp)
@@ -95,11 +93,37 @@ class MacroExpansionContainer
         macroDef2Locations.clear();
     }
 
-    // Call after all the expansions have been added. Sorts by macro.startOffset
+    // Call after all the expansions have been added. Sorts by start offset (keeping the
+    // insertion order for equal offsets) and builds the index used by checkFromExpansion
     public void sortByStartOffset()
     {
-        //macroExpansions.sort();
-        Collections.sort(macroExpansions);
+        // Pack the start offset and the insertion position on a long so a primitive
+        // sort gives a stable order without boxing
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) startOffsets[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        String[] sortedCodenames = new String[size];
+        int[] sortedStarts = new int[size];
+        int[] sortedEnds = new int[size];
+        for (int i = 0; i < size; i++) {
+            int pos = (int) order[i];
+            sortedCodenames[i] = macroCodenames[pos];
+            sortedStarts[i] = startOffsets[pos];
+            sortedEnds[i] = endOffsets[pos];
+        }
+        macroCodenames = sortedCodenames;
+        startOffsets = sortedStarts;
+        endOffsets = sortedEnds;
+
+        maxEndOffsets = new int[size];
+        int maxEnd = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            maxEnd = Math.max(maxEnd, endOffsets[i]);
+            maxEndOffsets[i] = maxEnd;
+        }
     }
 
     public String checkFromExpansion(IASTNode node)
@@ -109,18 +133,61 @@ class MacroExpansionContainer
             return null;
 
         int nodeStart = loc.getNodeOffset();
+        return checkFromExpansion(nodeStart, nodeStart + loc.getNodeLength());
+    }
+
+    // Returns the codename of the first expansion (by start offset) containing
+    // [nodeStart, nodeEnd] or null if the range is not inside any expansion. CDT only
+    // gives the top level expansions of the file so in practice there is at most one.
+    String checkFromExpansion(int nodeStart, int nodeEnd)
+    {
         if (nodeStart < firstStartOffset)
             return null;
 
-        int nodeEnd = nodeStart + loc.getNodeLength();
         if (nodeEnd > lastEndOffset)
             return null;
 
-        for (MacroExpansionLocation expLoc : macroExpansions) {
-            if (nodeStart >= expLoc.startOffset && nodeEnd <= expLoc.endOffset)
-                return expLoc.macroCodename;
+        // Only the expansions in [0, candidates) start before the node
+        int candidates = firstStartAfter(nodeStart);
+        if (candidates == 0)
+            return null;
+
+        // maxEndOffsets is non decreasing, so the first position where it reaches
+        // nodeEnd is the first expansion that ends after the node
+        int first = firstMaxEndAtLeast(nodeEnd, candidates);
+        if (first == candidates)
+            return null;
+
+        return macroCodenames[first];
+    }
+
+    private int firstStartAfter(int offset)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (startOffsets[mid] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
         }
+        return low;
+    }
 
-        return null;
+    private int firstMaxEndAtLeast(int offset, int limit)
+    {
+        int low = 0;
+        int high = limit;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (maxEndOffsets[mid] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 }
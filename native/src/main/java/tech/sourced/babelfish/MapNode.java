@@ -1,87 +1,333 @@
 package tech.sourced.babelfish;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-
-// POD style value of the exported AST HashMap
-public class MapNode
-{
-    public enum CommentType
-    {
-        LEADING,
-        TRAILING,
-        FREESTANDING
-    }
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.base.GeneratorBase;
 
-    public class Location
-    {
-        private int lineStart;
-        private int lineEnd;
-        private int offsetStart;
-        private int offsetLength;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
-        public Location(int lineStart, int lineEnd, int offsetStart, int offsetLength) {
-            this.lineStart = lineStart;
-            this.lineEnd = lineEnd;
-            this.offsetStart = offsetStart;
-            this.offsetLength = offsetLength;
-        }
+/**
+ * Compact copy of the serialized AST that doesn't reference CDT, so the translation
+ * unit, its bindings, scopes and location map can be freed before the response is
+ * written. It's built in one pass by recording what the serializer writes (see
+ * Builder) and written by replaying it on the generator of any format.
+ *
+ * Every write is one entry of two parallel primitive arrays: its type and an int value
+ * (the number, the position of the string or field name in a StringTable, or nothing
+ * for the structure). Longs and doubles take two entries, and the numbers that don't
+ * fit in them are kept as text in the string table.
+ */
+final class MapNode {
+    private static final byte START_OBJECT = 0;
+    private static final byte END_OBJECT = 1;
+    private static final byte START_ARRAY = 2;
+    private static final byte END_ARRAY = 3;
+    private static final byte FIELD_NAME = 4;
+    private static final byte STRING = 5;
+    private static final byte INT = 6;
+    private static final byte LONG = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte TRUE = 9;
+    private static final byte FALSE = 10;
+    private static final byte NULL = 11;
+    // Numbers kept as their text in the string table
+    private static final byte BIG_INTEGER = 12;
+    private static final byte BIG_DECIMAL = 13;
+    private static final byte ENCODED_NUMBER = 14;
 
-        public Location() {
-            this.lineStart = -1;
-            this.lineEnd = -1;
-            this.offsetStart = -1;
-            this.offsetLength = -1;
-        }
+    private final byte[] types;
+    private final int[] values;
+    private final int size;
+    // Strings and field names by position, without the lookup map of the builder
+    private final String[] strings;
+    // Error that stopped the serialization, thrown after writing what was recorded
+    private final IOException error;
+
+    private MapNode(Builder builder, IOException error) {
+        this.types = Arrays.copyOf(builder.types, builder.size);
+        this.values = Arrays.copyOf(builder.values, builder.size);
+        this.size = builder.size;
+        this.strings = builder.strings.values().toArray(new String[builder.strings.size()]);
+        this.error = error;
     }
 
-    // Holds leading, trailing and freestand comments related to a MapNode
-    public class RelatedComments
-    {
-        public class CommentInfo
-        {
-            String text;
-            boolean isBlockComment = false;
-            public Location location;
-
-            public CommentInfo(String text, boolean isBlockComment, int lineStart, int lineEnd,
-                               int offsetStart, int offsetLength) {
-                this.text = text;
-                this.isBlockComment = isBlockComment;
-                this.location = new Location(lineStart, lineEnd, offsetStart, offsetLength);
-            }
-        }
-        public List<CommentInfo> leading = new ArrayList<CommentInfo>();
-        public List<CommentInfo> trailing = new ArrayList<CommentInfo>();
-        public List<CommentInfo> freestanding = new ArrayList<CommentInfo>();
-
-        public void addComment(CommentType type, String text, boolean isBlockComment, int lineStart,
-                                      int lineEnd, int offsetStart, int offsetLength) {
-            CommentInfo comment = new CommentInfo(text, isBlockComment, lineStart, lineEnd,
-                    offsetStart, offsetLength);
-            switch (type) {
-                case LEADING:
-                    comments.leading.add(comment);
+    // Writes everything that was recorded
+    void writeTo(JsonGenerator json) throws IOException {
+        replay(json, false);
+    }
+
+    // Writes only the first value, the AST, without the fields written after it
+    void writeRootTo(JsonGenerator json) throws IOException {
+        replay(json, true);
+    }
+
+    private void replay(JsonGenerator json, boolean rootOnly) throws IOException {
+        int depth = 0;
+        for (int i = 0; i < size; i++) {
+            switch (types[i]) {
+                case START_OBJECT:
+                    json.writeStartObject();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    json.writeEndObject();
+                    depth--;
+                    break;
+                case START_ARRAY:
+                    json.writeStartArray();
+                    depth++;
                     break;
-                case TRAILING:
-                    comments.trailing.add(comment);
+                case END_ARRAY:
+                    json.writeEndArray();
+                    depth--;
                     break;
-                case FREESTANDING:
-                    comments.freestanding.add(comment);
+                case FIELD_NAME:
+                    json.writeFieldName(strings[values[i]]);
                     break;
+                case STRING:
+                    json.writeString(strings[values[i]]);
+                    break;
+                case INT:
+                    json.writeNumber(values[i]);
+                    break;
+                case LONG:
+                    json.writeNumber(toLong(values[i], values[++i]));
+                    break;
+                case DOUBLE:
+                    json.writeNumber(Double.longBitsToDouble(toLong(values[i], values[++i])));
+                    break;
+                case TRUE:
+                    json.writeBoolean(true);
+                    break;
+                case FALSE:
+                    json.writeBoolean(false);
+                    break;
+                case NULL:
+                    json.writeNull();
+                    break;
+                case BIG_INTEGER:
+                    json.writeNumber(new BigInteger(strings[values[i]]));
+                    break;
+                case BIG_DECIMAL:
+                    json.writeNumber(new BigDecimal(strings[values[i]]));
+                    break;
+                case ENCODED_NUMBER:
+                    json.writeNumber(strings[values[i]]);
+                    break;
+            }
+            if (rootOnly && depth == 0) {
+                break;
             }
         }
+        if (error != null) {
+            throw error;
+        }
     }
 
-    public String IASTClassName;
-    public HashMap<String, String> attributes = new HashMap<String, String>();
-    public List<MapNode> children = new ArrayList<MapNode>();
-    public RelatedComments comments = new RelatedComments();
-    public Location location = new Location();
+    private static long toLong(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Generator recording the writes of the serializer. Raw and binary values aren't
+     * written by the serializer, so they fail with a JsonGenerationException instead of
+     * being recorded.
+     */
+    static final class Builder extends GeneratorBase {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private byte[] types = new byte[INITIAL_CAPACITY];
+        private int[] values = new int[INITIAL_CAPACITY];
+        private int size;
+        private final StringTable strings = new StringTable();
+
+        Builder() {
+            super(0, null);
+        }
+
+        MapNode build(IOException error) {
+            return new MapNode(this, error);
+        }
+
+        private void add(byte type, int value) {
+            if (size == types.length) {
+                types = Arrays.copyOf(types, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            types[size] = type;
+            values[size] = value;
+            size++;
+        }
+
+        private void add(byte type, long value) {
+            add(type, (int) (value >>> 32));
+            add(type, (int) value);
+        }
+
+        @Override
+        public void writeStartObject() {
+            add(START_OBJECT, 0);
+        }
+
+        @Override
+        public void writeEndObject() {
+            add(END_OBJECT, 0);
+        }
+
+        @Override
+        public void writeStartArray() {
+            add(START_ARRAY, 0);
+        }
+
+        @Override
+        public void writeEndArray() {
+            add(END_ARRAY, 0);
+        }
+
+        @Override
+        public void writeFieldName(String name) {
+            add(FIELD_NAME, strings.indexOf(name));
+        }
+
+        @Override
+        public void writeFieldName(SerializableString name) {
+            writeFieldName(name.getValue());
+        }
+
+        @Override
+        public void writeString(String text) {
+            if (text == null) {
+                writeNull();
+            } else {
+                add(STRING, strings.indexOf(text));
+            }
+        }
+
+        @Override
+        public void writeString(char[] text, int offset, int len) {
+            writeString(new String(text, offset, len));
+        }
+
+        @Override
+        public void writeString(SerializableString text) {
+            writeString(text.getValue());
+        }
+
+        @Override
+        public void writeNumber(int v) {
+            add(INT, v);
+        }
+
+        @Override
+        public void writeNumber(long v) {
+            if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+                writeNumber((int) v);
+            } else {
+                add(LONG, v);
+            }
+        }
+
+        @Override
+        public void writeNumber(double v) {
+            add(DOUBLE, Double.doubleToRawLongBits(v));
+        }
+
+        @Override
+        public void writeNumber(float v) {
+            writeNumber((double) v);
+        }
+
+        @Override
+        public void writeNumber(BigInteger v) {
+            if (v == null) {
+                writeNull();
+            } else {
+                add(BIG_INTEGER, strings.indexOf(v.toString()));
+            }
+        }
+
+        @Override
+        public void writeNumber(BigDecimal v) {
+            if (v == null) {
+                writeNull();
+            } else {
+                add(BIG_DECIMAL, strings.indexOf(v.toString()));
+            }
+        }
+
+        @Override
+        public void writeNumber(String encodedValue) {
+            if (encodedValue == null) {
+                writeNull();
+            } else {
+                add(ENCODED_NUMBER, strings.indexOf(encodedValue));
+            }
+        }
+
+        @Override
+        public void writeBoolean(boolean state) {
+            add(state ? TRUE : FALSE, 0);
+        }
+
+        @Override
+        public void writeNull() {
+            add(NULL, 0);
+        }
+
+        @Override
+        public void writeRawUTF8String(byte[] text, int offset, int length) throws IOException {
+            unsupported("raw UTF-8 strings");
+        }
+
+        @Override
+        public void writeUTF8String(byte[] text, int offset, int length) {
+            writeString(new String(text, offset, length, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void writeRaw(String text) throws IOException {
+            unsupported("raw text");
+        }
+
+        @Override
+        public void writeRaw(String text, int offset, int len) throws IOException {
+            unsupported("raw text");
+        }
+
+        @Override
+        public void writeRaw(char[] text, int offset, int len) throws IOException {
+            unsupported("raw text");
+        }
+
+        @Override
+        public void writeRaw(char c) throws IOException {
+            unsupported("raw text");
+        }
+
+        @Override
+        public void writeBinary(Base64Variant bv, byte[] data, int offset, int len)
+                throws IOException {
+            unsupported("binary values");
+        }
+
+        private void unsupported(String what) throws JsonGenerationException {
+            throw new JsonGenerationException("MapNode can't record " + what +
+                    ", which the AST serialization never writes", this);
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        protected void _releaseBuffers() {}
 
-    public void setLocation(int lineStart, int lineEnd, int offsetStart, int offsetLength)
-    {
-        location = new Location(lineStart, lineEnd, offsetStart, offsetLength);
+        @Override
+        protected void _verifyValueWrite(String typeMsg) {}
     }
 }
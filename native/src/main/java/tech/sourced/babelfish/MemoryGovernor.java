@@ -0,0 +1,121 @@
+package tech.sourced.babelfish;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides when a request must be answered with the reduced output (parsed without the
+ * function bodies, and without comments, macro attribution nor preprocessor statements)
+ * to keep the heap under the percentage given by the memory.percent setting (0, the
+ * default, disables it).
+ *
+ * The heap is measured through the collection usage of the heap pools that support it
+ * (the old generation with the usual collectors): the memory still in use after the
+ * last GC, so the garbage of previous requests doesn't count. Before parsing, the cost
+ * of the request is estimated from the size of the source and its density of
+ * preprocessor directives and comments, which are, with the function bodies, the parts
+ * the reduced output avoids keeping in memory. During the serialization the visitor
+ * asks isOverBudget() from time to time and stops the macro attribution if a GC has
+ * left the heap over the limit; the comments and preprocessor statements are already
+ * written by then.
+ *
+ * The instance is shared by all the workers.
+ */
+final class MemoryGovernor {
+    // Rough retained bytes for every source char of the CDT AST, and for every directive
+    // or comment of the macro index and comment map. Only the order of magnitude matters.
+    static final int BYTES_PER_SOURCE_CHAR = 150;
+    static final int BYTES_PER_DIRECTIVE = 2048;
+    static final int BYTES_PER_COMMENT = 256;
+
+    private static final MemoryGovernor instance =
+            new MemoryGovernor(DriverConfig.getInt("memory.percent", 0));
+
+    private final List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+    private long limitBytes;
+
+    MemoryGovernor(int percent) {
+        if (percent <= 0) {
+            return;
+        }
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax();
+            if (pool.getType() != MemoryType.HEAP || max <= 0 ||
+                    !pool.isCollectionUsageThresholdSupported()) {
+                continue;
+            }
+            long threshold = max / 100 * Math.min(percent, 100);
+            pool.setCollectionUsageThreshold(threshold);
+            pools.add(pool);
+            limitBytes += threshold;
+        }
+    }
+
+    static MemoryGovernor getInstance() {
+        return instance;
+    }
+
+    boolean isEnabled() {
+        return !pools.isEmpty();
+    }
+
+    // True if the request can be parsed and serialized with the full output
+    boolean fits(char[] source) {
+        return !isEnabled() || retainedBytes() + estimateCost(source) <= limitBytes;
+    }
+
+    // True if the heap was still over the limit after the last GC
+    boolean isOverBudget() {
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.isCollectionUsageThresholdExceeded()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long retainedBytes() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) {
+                used += usage.getUsed();
+            }
+        }
+        return used;
+    }
+
+    static long estimateCost(char[] source) {
+        long directives = 0;
+        long comments = 0;
+        boolean lineStart = true;
+
+        for (int i = 0; i < source.length; i++) {
+            char c = source[i];
+            if (c == '\n') {
+                lineStart = true;
+                continue;
+            }
+            if (c == ' ' || c == '\t' || c == '\r') {
+                continue;
+            }
+            if (c == '#' && lineStart) {
+                directives++;
+            } else if (c == '/' && i + 1 < source.length &&
+                    (source[i + 1] == '/' || source[i + 1] == '*')) {
+                comments++;
+                i++;
+            }
+            lineStart = false;
+        }
+
+        return (long) source.length * BYTES_PER_SOURCE_CHAR
+                + directives * BYTES_PER_DIRECTIVE
+                + comments * BYTES_PER_COMMENT;
+    }
+}
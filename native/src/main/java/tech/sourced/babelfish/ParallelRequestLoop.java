@@ -0,0 +1,171 @@
+package tech.sourced.babelfish;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.*;
+
+/**
+ * Multi-worker version of the Main loop. A reader thread reads the requests and
+ * hands them to a pool of workers, each one with its own EclipseCPPParser and
+ * TranslationUnitJSONMapper writing into a private buffer. The responses are written to
+ * the output by the calling thread in the same order the requests arrived, so the
+ * protocol seen by the Go side is the same as with a single worker.
+ *
+ * CDT's parser keeps all the parsing state on the scanner, parser and AST instances
+ * created for each request (its own indexer runs several parsers in parallel) and the
+ * only static state used by EclipseCPPParser is the immutable scanner info, so the
+ * workers don't share anything mutable. ConcurrentProcessingTest checks that the
+ * output of concurrent workers is the same as the serial one.
+ *
+ * Unlike the single worker mode responses are fully buffered before being written, so
+ * every worker keeps a buffer as big as the biggest response it has produced. Batches
+ * are the exception: they're processed by the writing thread itself when their turn
+ * comes, so the response of every file is written through the output as soon as it's
+ * done, while their files are parsed in parallel on the BatchProcessor pool.
+ */
+class ParallelRequestLoop {
+    // Marks the end of the input on the pending queue
+    private static final PendingResponse END = () -> Main.ProcessCycle.STOP;
+
+    private final ExecutorService workers;
+    private final BlockingQueue<PendingResponse> pending;
+    private final ThreadLocal<Worker> worker = ThreadLocal.withInitial(Worker::new);
+    private final RequestReader input;
+    private final PrintStream output;
+    // Processes the batches writing straight to the output, only used by the writing thread
+    private RequestProcessor batchProcessor;
+
+    // Response written by the writing thread in the order of the requests
+    private interface PendingResponse {
+        Main.ProcessCycle write() throws IOException, InterruptedException, ExecutionException;
+    }
+
+    private static class Worker {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final RequestProcessor processor = new RequestProcessor(buffer);
+
+        byte[] result(Main.ProcessCycle cycle) throws IOException {
+            if (cycle == Main.ProcessCycle.STOP) {
+                throw new IOException("could not write the response nor the error");
+            }
+            byte[] response = buffer.toByteArray();
+            buffer.reset();
+            return response;
+        }
+    }
+
+    ParallelRequestLoop(int workerCount, RequestReader input, PrintStream output) {
+        this.input = input;
+        this.output = output;
+        // Bounded so a fast reader doesn't queue the whole input in memory
+        this.pending = new ArrayBlockingQueue<PendingResponse>(workerCount * 2);
+        this.workers = Executors.newFixedThreadPool(workerCount, daemonThreads("request-worker"));
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return runnable -> {
+            Thread t = new Thread(runnable, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // Blocks until the input is closed or the output can't be written
+    void run() {
+        Thread reader = daemonThreads("request-reader").newThread(this::readRequests);
+        reader.start();
+        try {
+            writeResponses();
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void readRequests() {
+        try {
+            while (true) {
+                final DriverRequest request;
+                try {
+                    request = input.next();
+                } catch (final DriverRequest.RequestLoadException e) {
+                    enqueueError("Error reading the petition: ", e);
+                    continue;
+                } catch (final IOException e) {
+                    enqueueError("A problem occurred while processing the petition: ", e);
+                    continue;
+                }
+
+                if (request == null) {
+                    // stdin closed
+                    enqueue(END);
+                    return;
+                }
+
+                if (BatchProcessor.ACTION.equals(request.action)) {
+                    enqueue(batch(request));
+                    continue;
+                }
+                enqueue(buffered(workers.submit(() -> {
+                    Worker w = worker.get();
+                    return w.result(w.processor.process(request));
+                })));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueueError(final String msg, final Exception e) throws InterruptedException {
+        enqueue(buffered(workers.submit(() -> {
+            Worker w = worker.get();
+            return w.result(w.processor.trySendRequestError(msg, e));
+        })));
+    }
+
+    private void enqueue(PendingResponse response) throws InterruptedException {
+        pending.put(response);
+    }
+
+    private PendingResponse buffered(final Future<byte[]> response) {
+        return () -> {
+            output.write(response.get());
+            output.flush();
+            return output.checkError() ? Main.ProcessCycle.STOP : Main.ProcessCycle.CONTINUE;
+        };
+    }
+
+    private PendingResponse batch(final DriverRequest request) {
+        return () -> {
+            if (batchProcessor == null) {
+                batchProcessor = new RequestProcessor(output);
+            }
+            Main.ProcessCycle cycle = batchProcessor.process(request);
+            return output.checkError() ? Main.ProcessCycle.STOP : cycle;
+        };
+    }
+
+    private void writeResponses() {
+        try {
+            while (true) {
+                PendingResponse response = pending.take();
+                if (response == END) {
+                    return;
+                }
+
+                if (response.write() == Main.ProcessCycle.STOP) {
+                    System.err.println("BAILING OUT, CANT WRITE RESPONSES");
+                    return;
+                }
+            }
+        } catch (ExecutionException e) {
+            System.err.println("BAILING OUT, CANT WRITE ERRORS");
+            System.err.println(e.getCause().getMessage());
+        } catch (IOException e) {
+            System.err.println("BAILING OUT, CANT WRITE RESPONSES");
+            System.err.println(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
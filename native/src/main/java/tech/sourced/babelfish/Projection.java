@@ -0,0 +1,156 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.eclipse.cdt.core.dom.ast.IASTNode;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The part of the AST that a request wants, given in its "projection" field:
+ *
+ * {"include": ["IASTFunctionDefinition", ...], "exclude": [...], "maxDepth": 3,
+ *  "locations": false, "comments": false}
+ *
+ * Classes are matched by the simple name of the node class (the IASTClass of the output)
+ * or of any interface it implements, so "IASTFunctionDefinition" matches both the C and
+ * C++ definitions. A node that is excluded or is deeper than maxDepth (the translation
+ * unit being at depth 0) is pruned with all its subtree, which is never walked. When
+ * include is given only the nodes matching it are written, but the nodes that don't
+ * match are still walked: the included nodes under them are written in an array under
+ * the property of their nearest written ancestor. The translation unit itself is always
+ * written.
+ *
+ * The files of a batch share the projection of the batch, so the class matching is
+ * cached on a concurrent map.
+ */
+final class Projection {
+    // Everything, used when the request doesn't have a projection
+    static final Projection ALL = new Projection();
+
+    private final Set<String> include = new TreeSet<String>();
+    private final Set<String> exclude = new TreeSet<String>();
+    // 0 means no limit
+    private int maxDepth;
+    private boolean locations = true;
+    private boolean comments = true;
+    // Result of the class matching for every node class seen
+    private final ConcurrentHashMap<Class<?>, Action> classActions =
+            new ConcurrentHashMap<Class<?>, Action>();
+
+    // What is done with a node
+    enum Action {
+        // The node is written with its subtree
+        WRITE,
+        // The node isn't written but its included descendants are
+        DESCEND,
+        // Neither the node nor its subtree are written
+        PRUNE
+    }
+
+    private Projection() {}
+
+    static Projection load(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("the projection must be a JSON object");
+        }
+
+        Projection projection = new Projection();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            if (value == JsonToken.VALUE_NULL) {
+                continue;
+            }
+
+            switch (field) {
+                case "include":
+                    readNames(parser, projection.include);
+                    break;
+                case "exclude":
+                    readNames(parser, projection.exclude);
+                    break;
+                case "maxDepth":
+                    projection.maxDepth = parser.getIntValue();
+                    break;
+                case "locations":
+                    projection.locations = parser.getValueAsBoolean();
+                    break;
+                case "comments":
+                    projection.comments = parser.getValueAsBoolean();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return projection;
+    }
+
+    private static void readNames(JsonParser parser, Set<String> names) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            throw new IOException("the projection classes must be an array of names");
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            names.add(parser.getText());
+        }
+    }
+
+    boolean hasLocations() {
+        return locations;
+    }
+
+    boolean hasComments() {
+        return comments;
+    }
+
+    // What to do with the node at the given depth
+    Action actionFor(IASTNode node, int depth) {
+        if (maxDepth > 0 && depth > maxDepth) {
+            return Action.PRUNE;
+        }
+        if (include.isEmpty() && exclude.isEmpty()) {
+            return Action.WRITE;
+        }
+
+        Class<?> nodeClass = node.getClass();
+        Action action = classActions.get(nodeClass);
+        if (action == null) {
+            Set<String> names = classNames(nodeClass);
+            if (!Collections.disjoint(exclude, names)) {
+                action = Action.PRUNE;
+            } else if (include.isEmpty() || !Collections.disjoint(include, names)) {
+                action = Action.WRITE;
+            } else {
+                action = Action.DESCEND;
+            }
+            classActions.put(nodeClass, action);
+        }
+        return action;
+    }
+
+    private static Set<String> classNames(Class<?> nodeClass) {
+        Set<String> names = new HashSet<String>();
+        names.add(nodeClass.getSimpleName());
+        Deque<Class<?>> pending = new ArrayDeque<Class<?>>();
+        for (Class<?> c = nodeClass; c != null; c = c.getSuperclass()) {
+            pending.addAll(Arrays.asList(c.getInterfaces()));
+        }
+        while (!pending.isEmpty()) {
+            Class<?> iface = pending.pop();
+            if (names.add(iface.getSimpleName())) {
+                pending.addAll(Arrays.asList(iface.getInterfaces()));
+            }
+        }
+        return names;
+    }
+
+    // Canonical form, used in the cache key
+    @Override
+    public String toString() {
+        return "include=" + include + ",exclude=" + exclude + ",maxDepth=" + maxDepth +
+                ",locations=" + locations + ",comments=" + comments;
+    }
+}
@@ -0,0 +1,50 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Time spent in every phase of a request, measured with System.nanoTime, and the size
+ * of its AST. Written as the "metrics" object of the response when the request asks for
+ * it and always added to the process-wide DriverMetrics.
+ *
+ * CDT runs the preprocessor lazily while parsing so the preprocessing time is part of
+ * the parse phase; the scanner phase is only the creation of the preprocessor and the
+ * parser. The serialize phase doesn't include the macros one even though it happens in
+ * the middle of the serialization.
+ */
+final class RequestMetrics {
+    enum Phase {scanner, parse, comments, macros, serialize}
+
+    private final long[] nanos = new long[Phase.values().length];
+    int nodes;
+    int comments;
+    int macroExpansions;
+
+    // Adds the time elapsed since startNanos, a System.nanoTime value
+    void addSince(Phase phase, long startNanos) {
+        addNanos(phase, System.nanoTime() - startNanos);
+    }
+
+    void addNanos(Phase phase, long elapsed) {
+        nanos[phase.ordinal()] += elapsed;
+    }
+
+    long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    @JsonValue
+    Map<String, Object> toJson() {
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        for (Phase phase : Phase.values()) {
+            json.put(phase + "Ms", getNanos(phase) / 1e6);
+        }
+        json.put("nodes", nodes);
+        json.put("comments", comments);
+        json.put("macroExpansions", macroExpansions);
+        return json;
+    }
+}
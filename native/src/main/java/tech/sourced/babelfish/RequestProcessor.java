@@ -0,0 +1,172 @@
+package tech.sourced.babelfish;
+
+import org.eclipse.cdt.core.parser.ParserLanguage;
+import org.eclipse.cdt.core.parser.ParserMode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+
+/**
+ * Parses requests and writes their responses (or error responses) to a single output
+ * stream. It keeps its own parser and format writters between requests so it's not
+ * thread safe: every worker thread must use its own instance.
+ */
+class RequestProcessor {
+    // Dumps the process counters, see DriverMetrics
+    static final String STATS_ACTION = "stats";
+
+    private final EclipseCPPParser parser = new EclipseCPPParser();
+    private final CapturingOutputStream out;
+    private final ResponseCache cache = ResponseCache.getInstance();
+    private final MemoryGovernor memoryGovernor = MemoryGovernor.getInstance();
+    private final DriverMetrics driverMetrics = DriverMetrics.getInstance();
+    // Writers for every response format used so far. They're recreated after an error
+    // since the generator could be left in the middle of a document.
+    private final EnumMap<ExchangeFormat, IExchangeFormatWritter> writters =
+            new EnumMap<ExchangeFormat, IExchangeFormatWritter>(ExchangeFormat.class);
+    // Format of the request being processed, also used for its error response
+    private ExchangeFormat format = ExchangeFormat.JSON;
+    // Position in its batch of the file being processed, also used for its error response
+    private Integer index;
+    private final long defaultTimeoutMillis = DriverConfig.getInt("timeout.ms", 0);
+    private final boolean compactTree = "compact".equals(DriverConfig.getString("tree", "cdt"));
+
+    RequestProcessor(OutputStream out) {
+        this.out = new CapturingOutputStream(out);
+    }
+
+    private IExchangeFormatWritter getWritter() throws IOException {
+        IExchangeFormatWritter writter = writters.get(format);
+        if (writter == null) {
+            writter = format.createWritter(out);
+            writters.put(format, writter);
+        }
+        return writter;
+    }
+
+    // Reads and processes the next request, returns STOP when the input is closed
+    Main.ProcessCycle process(RequestReader in) {
+        final DriverRequest request;
+        try {
+            request = in.next();
+        } catch (DriverRequest.RequestLoadException e) {
+            return trySendRequestError("Error reading the petition: ", e);
+        } catch (IOException e) {
+            return trySendRequestError("A problem occurred while processing the petition: ", e);
+        }
+
+        if (request == null) {
+            // stdin closed
+            return Main.ProcessCycle.STOP;
+        }
+        return process(request);
+    }
+
+    Main.ProcessCycle process(DriverRequest request) {
+        format = ExchangeFormat.JSON;
+        index = request.index;
+        try {
+            format = ExchangeFormat.fromName(request.format);
+            if (BatchProcessor.ACTION.equals(request.action)) {
+                if (index != null) {
+                    throw new IOException("batches can't be nested");
+                }
+                // Otherwise nothing at all would be written for the request
+                if (request.files == null || request.files.length == 0) {
+                    throw new IOException("a batch needs a non-empty files array");
+                }
+                return BatchProcessor.process(request, out);
+            }
+            if (STATS_ACTION.equals(request.action)) {
+                DriverResponse response = new DriverResponse(getWritter());
+                response.stats = driverMetrics.toPrometheus();
+                response.send();
+                return Main.ProcessCycle.CONTINUE;
+            }
+
+            ParserLanguage lang = EclipseCPPParser.languageOf(request.language);
+            ParserMode mode = request.outline ?
+                    ParserMode.STRUCTURAL_PARSE :
+                    ParserMode.COMPLETE_PARSE;
+
+            // The metrics of a cached response would be the ones of its first request
+            String cacheKey = null;
+            if (cache.isEnabled() && index == null && !request.metrics) {
+                cacheKey = ResponseCache.key(request.content, format.name() + "," + lang + "," + mode +
+                        "," + request.positions + "," + request.stringTable +
+                        "," + request.projection);
+                byte[] cached = cache.get(cacheKey);
+                if (cached != null) {
+                    out.write(cached);
+                    out.flush();
+                    return Main.ProcessCycle.CONTINUE;
+                }
+                out.startCapture(cache.maxEntrySize());
+            }
+
+            DriverResponse response = new DriverResponse(getWritter());
+            response.index = index;
+            response.setProjection(request.projection);
+            response.setWithMetrics(request.metrics);
+            response.setPositions(request.positions);
+            response.setStringTable(request.stringTable);
+            response.setCompactTree(compactTree);
+            response.parseCode(parser, request.content, lang, mode,
+                    request.timeout != null ? request.timeout : defaultTimeoutMillis,
+                    !memoryGovernor.fits(request.content));
+            response.send();
+            driverMetrics.record(response.status, response.metrics);
+
+            if (cacheKey != null) {
+                byte[] serialized = out.stopCapture();
+                // Timed out and reduced responses could be complete on a less loaded run
+                if (serialized != null && response.status == DriverResponse.Status.ok &&
+                        !response.isReduced()) {
+                    cache.put(cacheKey, serialized);
+                }
+            }
+            return Main.ProcessCycle.CONTINUE;
+
+        } catch (DriverResponse.ResponseSendException e) {
+            return trySendError("Error serializing the AST to JSON: ", e);
+        } catch (IOException e) {
+            return trySendError("A problem occurred while processing the petition: ", e);
+        }
+    }
+
+    // For requests that couldn't be read, so their format is unknown
+    Main.ProcessCycle trySendRequestError(String msg, Exception e) {
+        format = ExchangeFormat.JSON;
+        index = null;
+        return trySendError(msg, e);
+    }
+
+    //Try to send and error trough the response driver, print to stdout and stop and print on stderr if that fails
+    Main.ProcessCycle trySendError(String msg, Exception e) {
+        writters.remove(format);
+        // Error responses are never cached
+        out.stopCapture();
+        // A buffered response can still drop the partially written document; a streamed
+        // one has already sent it
+        if (out.getTarget() instanceof ByteArrayOutputStream) {
+            ((ByteArrayOutputStream) out.getTarget()).reset();
+        }
+
+        try {
+            DriverResponse response = new DriverResponse(getWritter());
+            response.index = index;
+            response.sendError(e, msg);
+            driverMetrics.record(response.status, null);
+            return Main.ProcessCycle.CONTINUE;
+        } catch (Exception j) {
+            writters.remove(format);
+            System.err.println(e.getMessage());
+            System.err.println("BAILING OUT, CANT WRITE ERRORS");
+            System.err.println("ADITTIONAL ERROR WHILE SENDING ERROR BELOW!");
+            System.err.println(j.getMessage());
+            return Main.ProcessCycle.STOP;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package tech.sourced.babelfish;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the requests from the driver input. A single instance must be used for the whole
+ * life of the input so no buffered bytes are lost between requests.
+ *
+ * The requests are decoded straight from a reusable byte buffer instead of building a
+ * String for every line. Two framings are supported:
+ *
+ * - LINE (default): every request is a JSON document on a single line.
+ * - LENGTH: every request is preceded by a line with its length in bytes as a decimal
+ *   number, so the reader knows beforehand how big the buffer must be. Empty lines
+ *   between requests are ignored.
+ */
+class RequestReader {
+    enum Framing {LINE, LENGTH}
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    // Bigger buffers used by huge requests are released after use
+    private static final int MAX_RETAINED_BUFFER_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_HEADER_LENGTH = 32;
+
+    private final InputStream in;
+    private final Framing framing;
+    // Bytes read from the input but not consumed yet are in [start, limit)
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int start;
+    private int limit;
+    private boolean eof;
+
+    RequestReader(InputStream in, Framing framing) {
+        this.in = in;
+        this.framing = framing;
+    }
+
+    static Framing configuredFraming() {
+        String framing = DriverConfig.getString("framing", "line");
+        return framing.equalsIgnoreCase("length") ? Framing.LENGTH : Framing.LINE;
+    }
+
+    /**
+     * Returns the next request or null if the input has been closed.
+     *
+     * @throws DriverRequest.RequestLoadException if the request is not valid, the next
+     * call will read the following request.
+     */
+    DriverRequest next() throws IOException {
+        releaseBigBuffer();
+        return framing == Framing.LENGTH ? nextWithLength() : nextLine();
+    }
+
+    private DriverRequest nextLine() throws IOException {
+        int end = findLineEnd();
+        if (end == -1) {
+            return null;
+        }
+
+        int lineStart = start;
+        start = Math.min(end + 1, limit);
+        return DriverRequest.load(buffer, lineStart, trimCarriageReturn(lineStart, end) - lineStart);
+    }
+
+    private DriverRequest nextWithLength() throws IOException {
+        int end;
+        do {
+            end = findLineEnd();
+            if (end == -1) {
+                return null;
+            }
+            int headerStart = start;
+            start = Math.min(end + 1, limit);
+            end = trimCarriageReturn(headerStart, end);
+            if (end > headerStart) {
+                return readFrame(headerStart, end);
+            }
+        } while (true);
+    }
+
+    private DriverRequest readFrame(int headerStart, int headerEnd) throws IOException {
+        int length;
+        String header = new String(buffer, headerStart, Math.min(headerEnd - headerStart,
+                    MAX_HEADER_LENGTH), StandardCharsets.US_ASCII);
+        try {
+            length = Integer.parseInt(header.trim());
+        } catch (NumberFormatException e) {
+            throw new DriverRequest.RequestLoadException(
+                    new IOException("invalid request length header: " + header, e));
+        }
+        if (length < 0) {
+            throw new DriverRequest.RequestLoadException(
+                    new IOException("invalid request length: " + length));
+        }
+
+        if (!fill(length)) {
+            start = limit;
+            throw new DriverRequest.RequestLoadException(
+                    new IOException("input closed in the middle of a request"));
+        }
+
+        int frameStart = start;
+        start += length;
+        return DriverRequest.load(buffer, frameStart, length);
+    }
+
+    // Returns the position of the next '\n' (or limit for a last line without it) reading
+    // more input as needed, or -1 if there is nothing left
+    private int findLineEnd() throws IOException {
+        int scanned = start;
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    return i;
+                }
+            }
+
+            scanned = limit - start;
+            if (!readMore()) {
+                return limit > start ? limit : -1;
+            }
+            scanned += start;
+        }
+    }
+
+    private int trimCarriageReturn(int lineStart, int end) {
+        return end > lineStart && buffer[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    // Ensures that there are at least length unconsumed bytes, returns false on EOF
+    private boolean fill(int length) throws IOException {
+        if (buffer.length < length) {
+            compact(length);
+        }
+        while (limit - start < length) {
+            if (!readMore()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Reads more bytes, moving the unconsumed ones to the start of the buffer and growing
+    // it if needed. Returns false if the input is closed.
+    private boolean readMore() throws IOException {
+        if (eof) {
+            return false;
+        }
+
+        if (limit == buffer.length) {
+            int pending = limit - start;
+            compact(pending == buffer.length ? buffer.length * 2 : buffer.length);
+        }
+
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read == -1) {
+            eof = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    private void compact(int capacity) {
+        int pending = limit - start;
+        byte[] dest = capacity == buffer.length ? buffer : new byte[Math.max(capacity, pending)];
+        System.arraycopy(buffer, start, dest, 0, pending);
+        buffer = dest;
+        start = 0;
+        limit = pending;
+    }
+
+    private void releaseBigBuffer() {
+        int pending = limit - start;
+        if (buffer.length > MAX_RETAINED_BUFFER_SIZE && pending <= INITIAL_BUFFER_SIZE) {
+            byte[] smaller = Arrays.copyOfRange(buffer, start, start + INITIAL_BUFFER_SIZE);
+            buffer = smaller;
+            start = 0;
+            limit = pending;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package tech.sourced.babelfish;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of already serialized responses, keyed by a SHA-256 hash of the
+ * request source plus every request option that changes the response. Byte-identical
+ * files (vendored headers, forks, re-indexed commits) skip the parsing and the
+ * serialization entirely.
+ *
+ * Entries are evicted in LRU order to keep the total size under the memory budget given
+ * by the cache.mb setting (0, the default, disables the cache). A single response can't
+ * use more than a quarter of the budget. It's shared by all the workers so every method
+ * is synchronized; the lookups are cheap compared to a parse.
+ */
+class ResponseCache {
+    private static final int MAX_ENTRY_FRACTION = 4;
+    private static final ResponseCache instance =
+            new ResponseCache((long) DriverConfig.getInt("cache.mb", 0) * 1024 * 1024);
+
+    private final long budget;
+    private final LinkedHashMap<String, byte[]> entries =
+            new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    ResponseCache(long budget) {
+        this.budget = Math.max(budget, 0);
+    }
+
+    static ResponseCache getInstance() {
+        return instance;
+    }
+
+    boolean isEnabled() {
+        return budget > 0;
+    }
+
+    // Bigger responses are not cached
+    int maxEntrySize() {
+        return (int) Math.min(budget / MAX_ENTRY_FRACTION, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the key for the request. Options is anything else (response format,
+     * parsing options...) that makes the response for the same source different.
+     */
+    static String key(char[] content, String options) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM must support SHA-256
+            throw new IllegalStateException(e);
+        }
+
+        ByteBuffer chunk = ByteBuffer.allocate(8192);
+        for (char c : content) {
+            if (chunk.remaining() < 2) {
+                digest.update(chunk.array(), 0, chunk.position());
+                chunk.clear();
+            }
+            chunk.putChar(c);
+        }
+        digest.update(chunk.array(), 0, chunk.position());
+
+        StringBuilder key = new StringBuilder(64 + options.length() + 1);
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16));
+            key.append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.append('|').append(options).toString();
+    }
+
+    synchronized byte[] get(String key) {
+        byte[] response = entries.get(key);
+        if (response == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return response;
+    }
+
+    synchronized void put(String key, byte[] response) {
+        if (response.length > maxEntrySize()) {
+            return;
+        }
+
+        byte[] previous = entries.put(key, response);
+        if (previous != null) {
+            size -= previous.length;
+        }
+        size += response.length;
+
+        Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+        while (size > budget && eldest.hasNext()) {
+            size -= eldest.next().getValue().length;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    synchronized int getEntries() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "response cache: " + hits + " hits, " + misses + " misses, " + evictions +
+                " evictions, " + entries.size() + " entries using " + size + " of " +
+                budget + " bytes";
+    }
+}
@@ -0,0 +1,53 @@
+package tech.sourced.babelfish;
+
+import org.eclipse.cdt.core.dom.ast.IASTFileLocation;
+import org.eclipse.cdt.core.dom.ast.IASTNode;
+
+/**
+ * Builds the short previews of the node sources written as "Snippet". The raw signature
+ * of a node is the source between the offsets of its file location, so the preview is
+ * sliced straight from the request source instead of copying the whole signature of
+ * every node (quadratic on nested nodes) and running a regex over it. The result is the
+ * same as EclipseCPPParser.getSnippet, which is used when the source isn't known:
+ * at most 20 chars with every newline turned into two spaces.
+ */
+final class SnippetProvider {
+    static final int MAX_LENGTH = 20;
+
+    private final char[] source;
+
+    SnippetProvider(char[] source) {
+        this.source = source;
+    }
+
+    String get(IASTNode node) {
+        if (source == null) {
+            return EclipseCPPParser.getSnippet(node);
+        }
+
+        IASTFileLocation loc = node.getFileLocation();
+        if (loc == null) {
+            return "";
+        }
+        int start = loc.getNodeOffset();
+        int end = start + loc.getNodeLength();
+        if (start < 0 || end > source.length) {
+            return EclipseCPPParser.getSnippet(node);
+        }
+
+        int length = Math.min(end - start, MAX_LENGTH);
+        StringBuilder snippet = new StringBuilder(MAX_LENGTH + 5);
+        for (int i = start; i < end && snippet.length() < length; i++) {
+            if (source[i] == '\n') {
+                snippet.append("  ");
+            } else {
+                snippet.append(source[i]);
+            }
+        }
+        snippet.setLength(length);
+        if (length == MAX_LENGTH) {
+            snippet.append("...");
+        }
+        return snippet.toString();
+    }
+}
@@ -0,0 +1,99 @@
+package tech.sourced.babelfish;
+
+import org.eclipse.cdt.core.dom.ast.IASTComment;
+import org.eclipse.cdt.core.dom.ast.IASTFileLocation;
+import org.eclipse.cdt.internal.core.dom.rewrite.commenthandler.NodeCommentMap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// All the comments of a translation unit (leading, freestanding and trailing) sorted
+// by offset once, then consumed in order with a cursor that only moves forward as the
+// serializer emits nodes.
+class SortedComments
+{
+    private static final SortedComments EMPTY = new SortedComments(new IASTComment[0], new int[0]);
+
+    private final IASTComment[] comments;
+    private final int[] offsets;
+    private int cursor;
+
+    private SortedComments(IASTComment[] comments, int[] offsets)
+    {
+        this.comments = comments;
+        this.offsets = offsets;
+    }
+
+    // Translation units without comments (or without a comment map, when it wasn't built)
+    // share an empty instance so nothing is allocated
+    static SortedComments of(NodeCommentMap commentMap)
+    {
+        if (commentMap == null)
+            return EMPTY;
+
+        int count = countComments(commentMap.getLeadingMap())
+                + countComments(commentMap.getFreestandingMap())
+                + countComments(commentMap.getTrailingMap());
+        if (count == 0)
+            return EMPTY;
+
+        IASTComment[] unsorted = new IASTComment[count];
+        int pos = copyComments(commentMap.getLeadingMap(), unsorted, 0);
+        pos = copyComments(commentMap.getFreestandingMap(), unsorted, pos);
+        copyComments(commentMap.getTrailingMap(), unsorted, pos);
+
+        // Pack the offset and the position on a long so a primitive sort gives a
+        // stable order without a comparator calling getFileLocation on every compare
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = ((long) offsetOf(unsorted[i]) << 32) | i;
+        }
+        Arrays.sort(order);
+
+        IASTComment[] sorted = new IASTComment[count];
+        int[] offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = unsorted[(int) order[i]];
+            offsets[i] = (int) (order[i] >> 32);
+        }
+        return new SortedComments(sorted, offsets);
+    }
+
+    private static int countComments(Map<?, List<IASTComment>> map)
+    {
+        int count = 0;
+        for (List<IASTComment> list : map.values()) {
+            count += list.size();
+        }
+        return count;
+    }
+
+    private static int copyComments(Map<?, List<IASTComment>> map, IASTComment[] dest, int pos)
+    {
+        for (List<IASTComment> list : map.values()) {
+            for (IASTComment comment : list) {
+                dest[pos++] = comment;
+            }
+        }
+        return pos;
+    }
+
+    private static int offsetOf(IASTComment comment)
+    {
+        IASTFileLocation loc = comment.getFileLocation();
+        return loc == null ? -1 : loc.getNodeOffset();
+    }
+
+    // True if there are comments starting before limitOffset not consumed yet
+    boolean hasPendingBefore(int limitOffset)
+    {
+        return cursor < offsets.length && offsets[cursor] < limitOffset;
+    }
+
+    // Returns the next comment, call only after hasPendingBefore returned true
+    IASTComment next()
+    {
+        return comments[cursor++];
+    }
+}
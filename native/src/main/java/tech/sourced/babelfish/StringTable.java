@@ -0,0 +1,39 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Distinct strings of a response in order of first use, each one referenced by its
+ * position. Tables belong to a single response and are dropped with it.
+ */
+class StringTable {
+    private final List<String> values = new ArrayList<String>();
+    private final HashMap<String, Integer> positions = new HashMap<String, Integer>();
+
+    // Adds the value if it's new; -1 for null
+    int indexOf(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer position = positions.get(value);
+        if (position == null) {
+            position = values.size();
+            values.add(value);
+            positions.put(value, position);
+        }
+        return position;
+    }
+
+    int size() {
+        return values.size();
+    }
+
+    @JsonValue
+    List<String> values() {
+        return values;
+    }
+}
@@ -0,0 +1,70 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+
+import java.io.IOException;
+
+/**
+ * Writes the symbol names, literal values and macro codenames of the AST as their
+ * index in a StringTable, which is written once after the AST. Any other value is
+ * written as is. Since it only changes the values given to the wrapped generator it
+ * works the same for every Jackson format.
+ */
+class StringTableGenerator extends JsonGeneratorDelegate {
+    private final StringTable table;
+    // Whether the last field name written is one of the shared ones
+    private boolean sharedField;
+
+    StringTableGenerator(JsonGenerator json, StringTable table) {
+        super(json, false);
+        this.table = table;
+    }
+
+    private static boolean isShared(String field) {
+        switch (field) {
+            case "Name":
+            case "SymbolName":
+            case "LiteralValue":
+            case "ExpandedFromMacro":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public void writeFieldName(String name) throws IOException {
+        sharedField = isShared(name);
+        super.writeFieldName(name);
+    }
+
+    @Override
+    public void writeFieldName(SerializableString name) throws IOException {
+        sharedField = isShared(name.getValue());
+        super.writeFieldName(name);
+    }
+
+    @Override
+    public void writeStartObject() throws IOException {
+        sharedField = false;
+        super.writeStartObject();
+    }
+
+    @Override
+    public void writeStartArray() throws IOException {
+        sharedField = false;
+        super.writeStartArray();
+    }
+
+    @Override
+    public void writeString(String text) throws IOException {
+        if (sharedField && text != null) {
+            sharedField = false;
+            super.writeNumber(table.indexOf(text));
+        } else {
+            super.writeString(text);
+        }
+    }
+}
@@ -3,12 +3,65 @@ package tech.sourced.babelfish;
 import org.eclipse.cdt.core.dom.ast.IASTTranslationUnit;
 import org.eclipse.cdt.internal.core.dom.rewrite.commenthandler.NodeCommentMap;
 
+import java.io.IOException;
+
 public class TranslationUnit {
     IASTTranslationUnit rootNode;
     NodeCommentMap commentMap;
+    // Time budget of the whole request in ms, 0 or less means no limit, and its end as a
+    // System.nanoTime() value; the serialization gets whatever the parsing left
+    long timeoutMillis;
+    long deadlineNanos;
+    // Serialize without comments, macros nor preprocessor statements. The serializer sets
+    // it too when the heap goes over budget in the middle of the serialization.
+    boolean reduced;
+    // Parsed without the function bodies, which are only placeholders
+    boolean outline;
+    // Part of the AST to write
+    Projection projection = Projection.ALL;
+    // Timings and counters of the request, the serializer adds its own
+    RequestMetrics metrics = new RequestMetrics();
+    // The parsed source, to slice the snippets from; null if unknown
+    char[] source;
+    // Write the lines and columns of the nodes, see JsonASTVisitor.setLineIndex
+    boolean positions;
+    // Set when the serialization ran out of its time budget, with the AST written until
+    // then; the response gets the timeout status
+    String serializationTimeout;
+    // Shared strings of the response, null when they're written inline; see
+    // StringTableGenerator
+    StringTable strings;
+
+    // Serialized AST once compacted, when the CDT objects are gone
+    MapNode tree;
 
     public TranslationUnit(IASTTranslationUnit rootNode, NodeCommentMap commentMap) {
         this.rootNode = rootNode;
         this.commentMap = commentMap;
     }
+
+    /**
+     * Serializes the AST to a MapNode in one pass and drops every reference to the CDT
+     * objects, so the translation unit, its bindings, scopes and location map can be
+     * collected before the response is written. The serializer, its visitor and the
+     * macro expansions it indexed only live during the recording, and the parser
+     * doesn't keep the unit, so after this nothing reaches the AST. An error is kept on
+     * the MapNode and thrown when it's written, like it would be thrown by the
+     * serializer.
+     */
+    void compact() {
+        MapNode.Builder builder = new MapNode.Builder();
+        IOException error = null;
+        try {
+            new TranslationUnitSerializer().writeUnit(this, builder);
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException(e);
+        }
+        tree = builder.build(error);
+        rootNode = null;
+        commentMap = null;
+        source = null;
+    }
 }
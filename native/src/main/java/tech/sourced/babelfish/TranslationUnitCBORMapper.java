@@ -0,0 +1,32 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the responses as CBOR (RFC 7049). The Jackson version used here doesn't support
+ * the stringref extension so keys are not shared, but every value is written in its
+ * binary form without any escaping or number formatting.
+ */
+class TranslationUnitCBORMapper extends TranslationUnitJSONMapper {
+
+    TranslationUnitCBORMapper(OutputStream byteOutput) throws IOException {
+        super(new CBORFactory(), false, byteOutput);
+    }
+
+    @Override
+    protected JsonGenerator createGenerator() throws IOException {
+        return jsonFactory.createGenerator(getOutputStream());
+    }
+
+    @Override
+    protected boolean reusesGenerator() {
+        return false;
+    }
+
+    @Override
+    protected void writeSeparator() {}
+}
@@ -0,0 +1,137 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the responses as flat columns that can be memory-mapped and scanned without
+ * building any object. Every response is, with all the integers as little endian int32:
+ *
+ *   "BFCA", version, header length, header (UTF-8 JSON), zero padding to 4 bytes
+ *   kind[nodes], parent[nodes], property[nodes], start[nodes], end[nodes],
+ *   string[nodes], macro[nodes]
+ *   stringOffsets[strings + 1], string bytes (UTF-8)
+ *
+ * The header has the fields of the JSON response except the AST, the number of nodes
+ * and strings and the "kinds" and "properties" dictionaries indexed by the kind and
+ * property columns. The nodes are in the order of the JsonASTVisitor traversal, so
+ * parents come before their children; the string and macro columns index the string
+ * table, whose string i takes the bytes [stringOffsets[i], stringOffsets[i + 1]).
+ * Missing values, like the parent of the root or the offsets of nodes without a
+ * location, are -1.
+ */
+class TranslationUnitColumnarWritter implements IExchangeFormatWritter {
+    // "BFCA" read as a little endian int
+    private static final int MAGIC = 0x41434642;
+    private static final int VERSION = 1;
+    private static final int CHUNK_INTS = 2048;
+    private static final byte[] PADDING = new byte[3];
+
+    private static final ObjectMapper headerMapper = new ObjectMapper();
+
+    private final OutputStream out;
+    private final byte[] chunk = new byte[CHUNK_INTS * 4];
+    private final IntBuffer chunkInts =
+            ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+    TranslationUnitColumnarWritter(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void writeValue(DriverResponse response) throws IOException {
+        // Nothing is written until the whole AST is in the columns, so an error while
+        // building them can still be sent as a normal response
+        ColumnarGenerator columns = new ColumnarGenerator();
+        TranslationUnit unit = response.translationUnit();
+        if (unit != null && unit.tree != null) {
+            unit.tree.writeRootTo(columns);
+        } else if (unit != null) {
+            TranslationUnitSerializer.writeAST(unit, columns);
+        }
+
+        List<String> strings = columns.getStringTable();
+        byte[] header = headerMapper.writeValueAsBytes(header(response, columns));
+        writeInts(MAGIC, VERSION, header.length);
+        out.write(header);
+        out.write(PADDING, 0, padding(header.length));
+
+        int size = columns.size();
+        writeColumn(columns.getKinds(), size);
+        writeColumn(columns.getParents(), size);
+        writeColumn(columns.getProperties(), size);
+        writeColumn(columns.getStarts(), size);
+        writeColumn(columns.getEnds(), size);
+        writeColumn(columns.getStrings(), size);
+        writeColumn(columns.getMacros(), size);
+
+        byte[][] encoded = new byte[strings.size()][];
+        int[] offsets = new int[strings.size() + 1];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            offsets[i + 1] = offsets[i] + encoded[i].length;
+        }
+        writeColumn(offsets, offsets.length);
+        for (byte[] string : encoded) {
+            out.write(string);
+        }
+    }
+
+    private static Map<String, Object> header(DriverResponse response,
+                                              ColumnarGenerator columns) {
+        Map<String, Object> header = new LinkedHashMap<String, Object>();
+        if (response.index != null) {
+            header.put("index", response.index);
+        }
+        header.put("driver", response.driver);
+        header.put("language", response.language);
+        header.put("languageVersion", response.languageVersion);
+        header.put("status", response.getStatus().toString());
+        header.put("errors", response.getErrors());
+        if (response.stats != null) {
+            header.put("stats", response.stats);
+        }
+        if (response.isReduced()) {
+            header.put("reduced", true);
+        }
+        if (response.getMetrics() != null) {
+            header.put("metrics", response.getMetrics().toJson());
+        }
+        header.put("nodes", columns.size());
+        header.put("strings", columns.getStringTable().size());
+        header.put("kinds", columns.getKindNames());
+        header.put("properties", columns.getPropertyNames());
+        return header;
+    }
+
+    private static int padding(int length) {
+        return (4 - length % 4) % 4;
+    }
+
+    private void writeInts(int... values) throws IOException {
+        writeColumn(values, values.length);
+    }
+
+    private void writeColumn(int[] values, int size) throws IOException {
+        for (int from = 0; from < size; from += CHUNK_INTS) {
+            int length = Math.min(CHUNK_INTS, size - from);
+            chunkInts.clear();
+            chunkInts.put(values, from, length);
+            out.write(chunk, 0, length * 4);
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+}
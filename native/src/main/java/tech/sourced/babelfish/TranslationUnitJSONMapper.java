@@ -11,22 +11,32 @@ import com.fasterxml.jackson.databind.module.SimpleModule;
 import org.eclipse.cdt.core.dom.ast.IASTTranslationUnit;
 
 import java.io.OutputStream;
-import java.io.PrintStream;
 import java.io.IOException;
 
 class TranslationUnitJSONMapper implements IExchangeFormatWritter {
 
-    final JsonGenerator generator;
-    final JsonFactory jsonFactory = new JsonFactory();
-    final ObjectMapper mapper = new ObjectMapper();
+    JsonGenerator generator;
+    final JsonFactory jsonFactory;
+    final ObjectMapper mapper;
+    private final boolean prettyPrint;
     private OutputStream printStream;
 
-    TranslationUnitJSONMapper(boolean prettyPrint, PrintStream byteOutput) throws IOException {
+    TranslationUnitJSONMapper(boolean prettyPrint, OutputStream byteOutput) throws IOException {
+        this(new JsonFactory(), prettyPrint, byteOutput);
+    }
+
+    // Used by the binary formats; since all the serialization is written against the
+    // JsonGenerator API any Jackson format factory works here
+    protected TranslationUnitJSONMapper(JsonFactory factory, boolean prettyPrint,
+                                        OutputStream byteOutput) throws IOException {
+        this.jsonFactory = factory;
+        // Closing the generators of the binary formats must not close the output
+        factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.mapper = new ObjectMapper(factory);
+        this.prettyPrint = prettyPrint;
         this.printStream = byteOutput;
 
-        generator = jsonFactory.createGenerator(printStream);
         if (prettyPrint) {
-            generator.setPrettyPrinter(new DefaultPrettyPrinter());
             mapper.enable(SerializationFeature.INDENT_OUTPUT);
         }
         mapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
@@ -37,8 +47,40 @@ class TranslationUnitJSONMapper implements IExchangeFormatWritter {
         mapper.registerModule(module);
     }
 
+    protected JsonGenerator createGenerator() throws IOException {
+        JsonGenerator gen = jsonFactory.createGenerator(printStream, JsonEncoding.UTF8);
+        // The generator is reused for several responses, each one ending with a newline
+        gen.setRootValueSeparator(null);
+        if (prettyPrint) {
+            gen.setPrettyPrinter(new DefaultPrettyPrinter());
+        }
+        return gen;
+    }
+
+    // Binary formats keep their back-reference tables on the generator so they need a
+    // new one for every response to be decodable on its own
+    protected boolean reusesGenerator() {
+        return true;
+    }
+
+    // Written after every response. Binary documents are self delimiting so they don't
+    // need (and must not have) a separator
+    protected void writeSeparator() throws IOException {
+        printStream.write('\n');
+    }
+
     public void writeValue(DriverResponse response) throws IOException {
+        if (generator == null || !reusesGenerator()) {
+            generator = createGenerator();
+        }
         mapper.writeValue(generator, response);
+        if (!reusesGenerator()) {
+            // Gives its buffers back to the factory. Only done after a complete response:
+            // closing it after an error would flush the partial document
+            generator.close();
+            generator = null;
+        }
+        writeSeparator();
     }
 
     public OutputStream getOutputStream() {
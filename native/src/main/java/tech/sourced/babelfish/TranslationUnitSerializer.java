@@ -46,6 +46,9 @@ public class TranslationUnitSerializer extends StdSerializer<TranslationUnit>
     // TODO: add the includes and other macro information to the root node
     // in the JSON
     JsonGenerator json;
+    private SnippetProvider snippets;
+    // Null when the source isn't known
+    private LineIndex lines;
 
     TranslationUnitSerializer() {
         this(null);
@@ -59,34 +62,89 @@ public class TranslationUnitSerializer extends StdSerializer<TranslationUnit>
     public void serialize(TranslationUnit unit, JsonGenerator jsonGenerator,
                           SerializerProvider provider) throws IOException {
 
-        JsonASTVisitor visitor = new JsonASTVisitor(jsonGenerator, unit.commentMap);
+        JsonGenerator out = unit.strings != null ?
+                new StringTableGenerator(jsonGenerator, unit.strings) :
+                jsonGenerator;
+        if (unit.tree != null) {
+            long start = System.nanoTime();
+            unit.tree.writeTo(out);
+            unit.metrics.addNanos(RequestMetrics.Phase.serialize, System.nanoTime() - start);
+        } else {
+            writeUnit(unit, out);
+        }
+        // TODO: close the jsonGenerator? Check that this doesnt close the associated
+        // outputstream
+    }
+
+    // Writes the AST and then the fields of the translation unit node
+    void writeUnit(TranslationUnit unit, JsonGenerator jsonGenerator) throws IOException {
+        writeAST(unit, jsonGenerator);
+        if (unit.serializationTimeout != null) {
+            return;
+        }
 
         this.json = jsonGenerator;
+        snippets = new SnippetProvider(unit.source);
+        lines = unit.source != null ? new LineIndex(unit.source) : null;
 
-        unit.rootNode.accept(visitor);
+        long start = System.nanoTime();
         serializeNode(unit.rootNode);
+        unit.metrics.addNanos(RequestMetrics.Phase.serialize, System.nanoTime() - start);
+    }
+
+    /**
+     * Writes the nodes of the unit with a JsonASTVisitor set up from its options. Also
+     * used by the writters that don't go through the Jackson ObjectMapper, like the
+     * columnar one.
+     */
+    static void writeAST(TranslationUnit unit, JsonGenerator jsonGenerator) throws IOException {
+        JsonASTVisitor visitor = new JsonASTVisitor(jsonGenerator, unit.commentMap);
+        visitor.setDeadline(unit.deadlineNanos, unit.timeoutMillis);
+        visitor.setReduced(unit.reduced);
+        visitor.setOutline(unit.outline);
+        visitor.setProjection(unit.projection);
+        visitor.setMetrics(unit.metrics);
+        visitor.setSnippets(new SnippetProvider(unit.source));
+        if (unit.positions && unit.source != null) {
+            visitor.setLineIndex(new LineIndex(unit.source));
+        }
+        MemoryGovernor governor = MemoryGovernor.getInstance();
+        if (governor.isEnabled()) {
+            visitor.setMemoryGovernor(governor);
+        }
+
+        long macrosNanos = unit.metrics.getNanos(RequestMetrics.Phase.macros);
+        long start = System.nanoTime();
+        unit.rootNode.accept(visitor);
+        // The macro indexing is done by the visitor but has its own phase
+        unit.metrics.addNanos(RequestMetrics.Phase.serialize, System.nanoTime() - start -
+                (unit.metrics.getNanos(RequestMetrics.Phase.macros) - macrosNanos));
+        unit.reduced = visitor.isReduced();
 
         if (visitor.hasError && visitor.error != null)  {
+            if (visitor.error instanceof JsonASTVisitor.SerializationTimeoutException) {
+                // The visitor closes the open objects while unwinding, so what was
+                // written is still a complete (truncated) AST
+                unit.serializationTimeout = visitor.error.getMessage();
+                return;
+            }
             throw visitor.error;
         }
-        // TODO: close the jsonGenerator? Check that this doesnt close the associated
-        // outputstream
     }
 
     private void serializeNode(IASTNode node) throws IOException {
         // FIXME: divide this into several methods by node type
-        json.writeFieldName("IASTClass");
-        json.writeString(node.getClass().getSimpleName());
+        json.writeFieldName(FieldNames.IAST_CLASS);
+        json.writeString(FieldNames.className(node.getClass()));
 
-        json.writeFieldName("Snippet");
-        // FIXME: move getSnippet here
-        json.writeString(EclipseCPPParser.getSnippet(node));
+        json.writeFieldName(FieldNames.SNIPPET);
+        json.writeString(snippets.get(node));
 
         serializeNodeLocation(node);
 
         ASTNodeProperty propInParent = node.getPropertyInParent();
         if (propInParent != null) {
-            json.writeFieldName("Role");
+            json.writeFieldName(FieldNames.ROLE);
             json.writeString(propInParent.getName());
         }
 
@@ -102,7 +160,7 @@ public class TranslationUnitSerializer extends StdSerializer<TranslationUnit>
 
         if (node instanceof IASTName) {
             IASTName name = (IASTName) node;
-            json.writeFieldName("SymbolName");
+            json.writeFieldName(FieldNames.SYMBOL_NAME);
             json.writeString(name.toString());
         }
 
@@ -127,7 +185,7 @@ public class TranslationUnitSerializer extends StdSerializer<TranslationUnit>
 
         IASTNode[] children = node.getChildren();
         if (children != null && children.length > 0) {
-            json.writeFieldName("childs");
+            json.writeFieldName(FieldNames.CHILDS);
             json.writeStartArray();
             try {
                 for (IASTNode child : children) {
@@ -153,18 +211,26 @@ public class TranslationUnitSerializer extends StdSerializer<TranslationUnit>
         int offsetLength = -1;
 
         if (loc != null) {
-            lineStart = loc.getStartingLineNumber();
-            lineEnd = loc.getEndingLineNumber();
             offsetStart = loc.getNodeOffset();
             offsetLength = loc.getNodeLength();
+            if (lines != null) {
+                // The ending line is the one of the last char, as for CDT
+                lineStart = lines.lineOf(offsetStart);
+                lineEnd = lines.lineOf(offsetLength > 0 ?
+                        offsetStart + offsetLength - 1 :
+                        offsetStart);
+            } else {
+                lineStart = loc.getStartingLineNumber();
+                lineEnd = loc.getEndingLineNumber();
+            }
         }
-        json.writeFieldName("LocLineStart");
+        json.writeFieldName(FieldNames.LOC_LINE_START);
         json.writeNumber(lineStart);
-        json.writeFieldName("LocLineEnd");
+        json.writeFieldName(FieldNames.LOC_LINE_END);
         json.writeNumber(lineEnd);
-        json.writeFieldName("LocOffsetStart");
+        json.writeFieldName(FieldNames.LOC_OFFSET_START);
         json.writeNumber(offsetStart);
-        json.writeFieldName("LocOffsetLength");
+        json.writeFieldName(FieldNames.LOC_OFFSET_LENGTH);
         json.writeNumber(offsetLength);
     }
 
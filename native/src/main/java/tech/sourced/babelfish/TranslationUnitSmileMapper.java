@@ -0,0 +1,41 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the responses as Smile (binary JSON). Repeated keys like "IASTClass" or
+ * "LocOffsetStart" and repeated short string values are written once per response and
+ * then referenced by index.
+ */
+class TranslationUnitSmileMapper extends TranslationUnitJSONMapper {
+
+    TranslationUnitSmileMapper(OutputStream byteOutput) throws IOException {
+        super(createFactory(), false, byteOutput);
+    }
+
+    private static SmileFactory createFactory() {
+        SmileFactory factory = new SmileFactory();
+        factory.enable(SmileGenerator.Feature.WRITE_HEADER);
+        factory.enable(SmileGenerator.Feature.CHECK_SHARED_NAMES);
+        factory.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+        return factory;
+    }
+
+    @Override
+    protected JsonGenerator createGenerator() throws IOException {
+        return jsonFactory.createGenerator(getOutputStream());
+    }
+
+    @Override
+    protected boolean reusesGenerator() {
+        return false;
+    }
+
+    @Override
+    protected void writeSeparator() {}
+}
@@ -0,0 +1,128 @@
+package tech.sourced.babelfish;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.eclipse.cdt.core.parser.ParserLanguage;
+import org.eclipse.cdt.core.parser.ParserMode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JIT warm-up run by Main before reading the first request. It parses and serializes an
+ * embedded corpus (some of the fixtures and a C source, packaged under /warmup in the
+ * jar) into a null sink until warmup.iterations passes over the corpus are done or
+ * warmup.ms milliseconds have passed, whatever comes first (0, the default for both,
+ * means no limit; without any of them there is no warm-up). The first requests then run
+ * on compiled code instead of the interpreter.
+ *
+ * The corpus is processed like a request but without the response cache nor the driver
+ * metrics so neither sees the warm-up. The end is reported on stderr.
+ */
+final class Warmup {
+    // Must match the fixtures packaged by the pom
+    private static final String[] CORPUS = {"bench_server.cpp", "cpp17_1.cpp",
+        "cpp17_2.cpp", "comments.cpp", "preprocessor_macro.cpp"};
+    // Parsed with the C parser, from src/main/resources
+    static final String[] C_CORPUS = {"warmup.c"};
+
+    private final int iterations;
+    private final long millis;
+
+    Warmup(int iterations, long millis) {
+        this.iterations = Math.max(iterations, 0);
+        this.millis = Math.max(millis, 0);
+    }
+
+    static Warmup configured() {
+        return new Warmup(DriverConfig.getInt("warmup.iterations", 0),
+                DriverConfig.getInt("warmup.ms", 0));
+    }
+
+    boolean isEnabled() {
+        return iterations > 0 || millis > 0;
+    }
+
+    void run() {
+        long start = System.nanoTime();
+        List<char[]> sources;
+        List<char[]> cSources;
+        try {
+            sources = loadCorpus(CORPUS);
+            cSources = loadCorpus(C_CORPUS);
+        } catch (IOException e) {
+            System.err.println("warm-up skipped, can't read the corpus: " + e.getMessage());
+            return;
+        }
+
+        EclipseCPPParser parser = new EclipseCPPParser();
+        IExchangeFormatWritter writter;
+        try {
+            writter = createWritter();
+        } catch (IOException e) {
+            System.err.println("warm-up skipped: " + e.getMessage());
+            return;
+        }
+
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(millis);
+        int passes = 0;
+        int files = 0;
+        try {
+            while ((iterations == 0 || passes < iterations) &&
+                    (millis == 0 || System.nanoTime() - deadline < 0)) {
+                for (char[] source : sources) {
+                    writter = warm(parser, writter, source, ParserLanguage.CPP);
+                    files++;
+                }
+                for (char[] source : cSources) {
+                    writter = warm(parser, writter, source, ParserLanguage.C);
+                    files++;
+                }
+                passes++;
+            }
+        } catch (IOException e) {
+            System.err.println("warm-up stopped after " + files + " files: " + e.getMessage());
+            return;
+        }
+
+        System.err.println("warm-up done: " + files + " files in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms, ready");
+    }
+
+    private static IExchangeFormatWritter createWritter() throws IOException {
+        return ExchangeFormat.JSON.createWritter(NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+
+    // Returns the writter for the next file, a new one if the response couldn't be sent
+    // since its generator could be left in the middle of a document
+    private static IExchangeFormatWritter warm(EclipseCPPParser parser,
+                                               IExchangeFormatWritter writter, char[] source,
+                                               ParserLanguage lang) throws IOException {
+        DriverResponse response = new DriverResponse(writter);
+        response.parseCode(parser, source, lang, ParserMode.COMPLETE_PARSE, 0, false);
+        try {
+            response.send();
+            return writter;
+        } catch (DriverResponse.ResponseSendException e) {
+            // The output is discarded anyway; keep warming with the next file
+            return createWritter();
+        }
+    }
+
+    static List<char[]> loadCorpus(String[] names) throws IOException {
+        List<char[]> sources = new ArrayList<char[]>(names.length);
+        for (String name : names) {
+            try (InputStream in = Warmup.class.getResourceAsStream("/warmup/" + name)) {
+                if (in == null) {
+                    throw new IOException(name + " not found");
+                }
+                sources.add(IOUtils.toCharArray(in, StandardCharsets.UTF_8));
+            }
+        }
+        return sources;
+    }
+}
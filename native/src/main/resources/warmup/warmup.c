@@ -0,0 +1,82 @@
+/*
+ * C source of the JIT warm-up, see Warmup. It goes through the constructs that only
+ * the C parser has its own code for.
+ */
+#define MAX(a, b) ((a) > (b) ? (a) : (b))
+#define COUNT(array) (sizeof(array) / sizeof((array)[0]))
+
+typedef unsigned long size_type;
+
+enum color { RED, GREEN = 2, BLUE };
+
+struct point {
+    int x, y;
+};
+
+union value {
+    long integer;
+    double real;
+    char bytes[sizeof(double)];
+};
+
+struct shape {
+    enum color color;
+    struct point corners[4];
+    unsigned visible : 1;
+    int (*area)(const struct shape *);
+};
+
+static int box_area(const struct shape *s) {
+    int width = s->corners[1].x - s->corners[0].x;
+    int height = s->corners[2].y - s->corners[0].y;
+    return width * height;
+}
+
+static struct shape box = {
+    .color = GREEN,
+    .corners = { [0] = { 0, 0 }, [1] = { .x = 4 }, [2] = { .y = 3 } },
+    .visible = 1,
+    .area = box_area,
+};
+
+// Old style definition, only valid in C
+int sum(values, count)
+    const int *values;
+    size_type count;
+{
+    int total = 0;
+    size_type i;
+    for (i = 0; i < count; i++) {
+        total += values[i];
+    }
+    return total;
+}
+
+int main(void) {
+    int values[] = { 3, 1, 4, 1, 5, 9, 2, 6 };
+    union value v;
+    struct point *p = &(struct point){ .x = 1, .y = 2 };
+    char *restrict name = 0;
+    int i = 0, biggest = 0;
+
+    v.real = 1.5;
+    while (i < (int) COUNT(values)) {
+        biggest = MAX(biggest, values[i]);
+        i++;
+    }
+    do {
+        switch (box.color) {
+        case RED:
+            biggest--;
+            break;
+        case GREEN:
+        case BLUE:
+            biggest += box.area(&box) + p->x;
+            break;
+        default:
+            goto done;
+        }
+    } while (0);
+done:
+    return name == 0 && v.integer != 0 ? sum(values, COUNT(values)) - biggest : -1;
+}
@@ -0,0 +1,108 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class BatchProcessingTest {
+
+    @Test
+    public void everyFileHasItsTaggedResponse() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        String[] sources = {"int main() { return 0; }", "{ broken", "int x = 1;"};
+
+        ObjectNode batch = mapper.createObjectNode();
+        batch.put("action", "batch");
+        batch.put("language", "C");
+        ArrayNode files = batch.putArray("files");
+        for (int i = 0; i < 20; i++) {
+            files.addObject().put("content", sources[i % sources.length]);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Main.ProcessCycle cycle = new RequestProcessor(out).process(
+                DriverRequest.load(mapper.writeValueAsString(batch)));
+        assertEquals(Main.ProcessCycle.CONTINUE, cycle);
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(20, lines.length);
+        boolean[] seen = new boolean[20];
+        for (String line : lines) {
+            JsonNode response = mapper.readTree(line);
+            int index = response.get("index").asInt();
+            assertFalse(seen[index]);
+            seen[index] = true;
+            assertEquals("C", response.get("language").asText());
+            if (index % sources.length != 1) {
+                assertEquals("ok", response.get("status").asText());
+            }
+
+            ByteArrayOutputStream single = new ByteArrayOutputStream();
+            new RequestProcessor(single).process(DriverRequest.load(mapper.writeValueAsString(
+                    mapper.createObjectNode().put("language", "C")
+                            .put("content", sources[index % sources.length]))));
+            JsonNode expected = mapper.readTree(single.toByteArray());
+            ((ObjectNode) response).remove("index");
+            assertEquals(expected, response);
+        }
+    }
+
+    @Test
+    public void batchWithoutFilesHasAnErrorResponse() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        String[] batches = {"{\"action\": \"batch\"}", "{\"action\": \"batch\", \"files\": []}"};
+        for (String batch : batches) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Main.ProcessCycle cycle = new RequestProcessor(out).process(DriverRequest.load(batch));
+            assertEquals(Main.ProcessCycle.CONTINUE, cycle);
+
+            String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+            assertEquals(1, lines.length);
+            JsonNode response = mapper.readTree(lines[0]);
+            assertNotEquals("ok", response.get("status").asText());
+            assertTrue(response.get("errors").toString().contains("non-empty files array"));
+        }
+    }
+
+    @Test
+    public void parallelWorkersStreamTheBatchInOrder() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode batch = mapper.createObjectNode();
+        batch.put("action", "batch");
+        ArrayNode files = batch.putArray("files");
+        for (int i = 0; i < 5; i++) {
+            files.addObject().put("content", "int f" + i + "() { return " + i + "; }");
+        }
+        String input = "{\"content\": \"int a;\"}\n" + mapper.writeValueAsString(batch) +
+                "\n{\"content\": \"int b;\"}\n";
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ParallelRequestLoop(4, new RequestReader(new ByteArrayInputStream(
+                input.getBytes(StandardCharsets.UTF_8)), RequestReader.Framing.LINE),
+                new PrintStream(out)).run();
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(7, lines.length);
+        assertTrue(lines[0].contains("\"Name\":\"a\""));
+        assertTrue(lines[6].contains("\"Name\":\"b\""));
+        boolean[] seen = new boolean[5];
+        for (int i = 1; i < 6; i++) {
+            JsonNode response = mapper.readTree(lines[i]);
+            assertEquals("ok", response.get("status").asText());
+            int index = response.get("index").asInt();
+            assertFalse(seen[index]);
+            seen[index] = true;
+            assertTrue(lines[i].contains("\"Name\":\"f" + index + "\""));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.eclipse.cdt.core.parser.ParserLanguage;
+import org.eclipse.cdt.core.parser.ParserMode;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class BinaryFormatTest {
+
+    // The output belongs to the caller, the writters must never close it
+    private static class UnclosableOutputStream extends ByteArrayOutputStream {
+        @Override
+        public void close() {
+            fail("the output was closed");
+        }
+    }
+
+    private static void assertBackToBack(ExchangeFormat format, JsonFactory factory)
+            throws IOException {
+        UnclosableOutputStream out = new UnclosableOutputStream();
+        IExchangeFormatWritter writter = format.createWritter(out);
+        String[] names = {"a", "b"};
+        for (String name : names) {
+            DriverResponse response = new DriverResponse(writter);
+            response.parseCode(new EclipseCPPParser(), ("int " + name + ";").toCharArray(),
+                    ParserLanguage.CPP, ParserMode.COMPLETE_PARSE, 0, false);
+            response.send();
+        }
+
+        ObjectMapper mapper = new ObjectMapper(factory);
+        JsonParser parser = factory.createParser(out.toByteArray());
+        for (String name : names) {
+            JsonNode response = mapper.readTree(parser);
+            assertEquals("ok", response.get("status").asText());
+            assertTrue(response.get("ast").toString().contains("\"Name\":\"" + name + "\""));
+        }
+        assertNull(parser.nextToken());
+    }
+
+    @Test
+    public void cborResponsesAreWrittenBackToBack() throws IOException {
+        assertBackToBack(ExchangeFormat.CBOR, new CBORFactory());
+    }
+
+    @Test
+    public void smileResponsesAreWrittenBackToBack() throws IOException {
+        assertBackToBack(ExchangeFormat.SMILE, new SmileFactory());
+    }
+}
@@ -0,0 +1,50 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.eclipse.cdt.core.parser.ParserLanguage;
+import org.eclipse.cdt.core.parser.ParserMode;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class CParserTest {
+
+    private static JsonNode parse(String source, ParserLanguage lang) throws IOException {
+        return TestResponses.sendJson(source, lang, ParserMode.COMPLETE_PARSE, false, null);
+    }
+
+    @Test
+    public void languageSelectsTheParser() {
+        assertEquals(ParserLanguage.C, EclipseCPPParser.languageOf("c"));
+        assertEquals(ParserLanguage.CPP, EclipseCPPParser.languageOf("C++"));
+        assertEquals(ParserLanguage.CPP, EclipseCPPParser.languageOf("CUDA"));
+        assertEquals(ParserLanguage.CPP, EclipseCPPParser.languageOf(null));
+    }
+
+    @Test
+    public void cSourceHasCommentsAndDesignators() throws IOException {
+        JsonNode response = parse("// point\nstruct p { int x; } a = { .x = 1 };\n",
+                ParserLanguage.C);
+
+        assertEquals("ok", response.get("status").asText());
+        assertEquals("C", response.get("language").asText());
+        JsonNode ast = response.get("ast");
+        assertEquals("CASTTranslationUnit", ast.get("IASTClass").asText());
+        assertEquals("point", ast.get("Comments").get(0).get("Comment").asText().substring(3));
+        assertTrue(ast.toString().contains("\"IASTClass\":\"CASTFieldDesignator\""));
+    }
+
+    @Test
+    public void cDeclaratorsHaveTheirTypeNode() throws IOException {
+        JsonNode response = parse("int add(int a, int b) { int c = a + b; return c; }\n",
+                ParserLanguage.C);
+
+        assertEquals("ok", response.get("status").asText());
+        String ast = response.get("ast").toString();
+        assertTrue(ast.contains("\"IASTClass\":\"CASTDeclarator\""));
+        assertTrue(ast.contains("\"Prop_TypeNode\":{\"IASTClass\":\"CASTSimpleDeclSpecifier\""));
+        assertFalse(ast.contains("DeclaresParameterPack"));
+    }
+}
@@ -0,0 +1,126 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.cdt.core.parser.ParserLanguage;
+import org.eclipse.cdt.core.parser.ParserMode;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ColumnarFormatTest {
+
+    // Decoded response
+    private static class Columns {
+        JsonNode header;
+        int[] kind, parent, property, start, end, string, macro;
+        String[] strings;
+
+        String kindOf(int node) {
+            return header.get("kinds").get(kind[node]).asText();
+        }
+
+        String propertyOf(int node) {
+            return property[node] < 0 ? null :
+                    header.get("properties").get(property[node]).asText();
+        }
+
+        int find(String kindName, String text) {
+            for (int i = 0; i < kind.length; i++) {
+                if (kindOf(i).equals(kindName) && string[i] >= 0 &&
+                        strings[string[i]].equals(text)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static Columns decode(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals("BFCA", new String(bytes, 0, 4, StandardCharsets.US_ASCII));
+        buffer.position(4);
+        assertEquals(1, buffer.getInt());
+        int headerLength = buffer.getInt();
+        Columns columns = new Columns();
+        columns.header = new ObjectMapper().readTree(new String(bytes, buffer.position(),
+                headerLength, StandardCharsets.UTF_8));
+        buffer.position(12 + (headerLength + 3) / 4 * 4);
+
+        int nodes = columns.header.get("nodes").asInt();
+        columns.kind = readInts(buffer, nodes);
+        columns.parent = readInts(buffer, nodes);
+        columns.property = readInts(buffer, nodes);
+        columns.start = readInts(buffer, nodes);
+        columns.end = readInts(buffer, nodes);
+        columns.string = readInts(buffer, nodes);
+        columns.macro = readInts(buffer, nodes);
+
+        int[] offsets = readInts(buffer, columns.header.get("strings").asInt() + 1);
+        columns.strings = new String[offsets.length - 1];
+        int base = buffer.position();
+        for (int i = 0; i < columns.strings.length; i++) {
+            columns.strings[i] = new String(bytes, base + offsets[i],
+                    offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+        }
+        assertEquals(bytes.length, base + offsets[offsets.length - 1]);
+        return columns;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    private static Columns parse(String source) throws IOException {
+        return decode(TestResponses.send(ExchangeFormat.COLUMNAR, source, ParserLanguage.CPP,
+                ParserMode.COMPLETE_PARSE, false, null));
+    }
+
+    @Test
+    public void nodesAreFlatColumns() throws IOException {
+        String source = "#define ONE 1\n// answer\nint answer() { return ONE; }\n";
+        Columns columns = parse(source);
+
+        assertEquals("ok", columns.header.get("status").asText());
+        assertEquals("CPPASTTranslationUnit", columns.kindOf(0));
+        assertEquals(-1, columns.parent[0]);
+        for (int i = 1; i < columns.kind.length; i++) {
+            assertTrue(columns.parent[i] >= 0 && columns.parent[i] < i);
+            assertNotNull(columns.propertyOf(i));
+        }
+
+        int name = columns.find("CPPASTName", "answer");
+        assertTrue(name > 0);
+        assertEquals(source.indexOf("answer()"), columns.start[name]);
+        assertEquals(source.indexOf("answer()") + "answer".length(), columns.end[name]);
+        assertEquals("Prop_Name", columns.propertyOf(name));
+        assertEquals("CPPASTFunctionDeclarator", columns.kindOf(columns.parent[name]));
+
+        int literal = columns.find("CPPASTLiteralExpression", "1");
+        assertTrue(literal > 0);
+        assertEquals("ONE_0:13", columns.strings[columns.macro[literal]]);
+
+        assertTrue(columns.find("Comment", "// answer") > 0);
+    }
+
+    @Test
+    public void errorsHaveNoNodes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DriverResponse response = new DriverResponse(new TranslationUnitColumnarWritter(out));
+        response.sendError(new IOException("broken"), "test: ");
+        Columns columns = decode(out.toByteArray());
+
+        assertEquals("fatal", columns.header.get("status").asText());
+        assertEquals(0, columns.kind.length);
+        assertEquals(0, columns.strings.length);
+    }
+}
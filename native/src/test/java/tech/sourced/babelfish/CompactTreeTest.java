@@ -0,0 +1,130 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.cdt.core.dom.ast.IASTTranslationUnit;
+import org.eclipse.cdt.core.parser.ParserLanguage;
+import org.eclipse.cdt.core.parser.ParserMode;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class CompactTreeTest {
+
+    private static byte[] parse(String source, ExchangeFormat format, boolean compact)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DriverResponse response = TestResponses.parse(format, out, source, ParserLanguage.CPP,
+                ParserMode.COMPLETE_PARSE, false, r -> r.setCompactTree(compact));
+        if (compact) {
+            assertNull(response.translationUnit().rootNode);
+            assertNull(response.translationUnit().commentMap);
+        }
+        response.send();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void sameOutputInEveryFormat() throws IOException {
+        String source = FileUtils.readFileToString(new File("src/test/resources/test.cpp"),
+                StandardCharsets.UTF_8);
+        for (ExchangeFormat format : ExchangeFormat.values()) {
+            assertArrayEquals(format.name(), parse(source, format, false),
+                    parse(source, format, true));
+        }
+    }
+
+    // Keeps a weak reference to the CDT AST of the last unit it parsed
+    private static class WatchingParser extends EclipseCPPParser {
+        WeakReference<IASTTranslationUnit> ast;
+
+        @Override
+        TranslationUnit parse(char[] code, ParserLanguage lang, ParserMode mode,
+                              long timeoutMillis, boolean withComments, RequestMetrics metrics)
+                throws ParseTimeoutException {
+            TranslationUnit unit = super.parse(code, lang, mode, timeoutMillis, withComments,
+                    metrics);
+            ast = new WeakReference<IASTTranslationUnit>(unit.rootNode);
+            return unit;
+        }
+    }
+
+    @Test
+    public void theAstIsCollectedBeforeSending() throws IOException, InterruptedException {
+        WatchingParser parser = new WatchingParser();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DriverResponse response = new DriverResponse(ExchangeFormat.JSON.createWritter(out));
+        response.setCompactTree(true);
+        response.parseCode(parser, "// answer\nint f() { return 42; }\n".toCharArray(),
+                ParserLanguage.CPP, ParserMode.COMPLETE_PARSE, 0, false);
+        assertNotNull(parser.ast);
+
+        for (int i = 0; i < 50 && parser.ast.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(parser.ast.get());
+
+        response.send();
+        String sent = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(sent.contains("\"Name\":\"f\""));
+        assertTrue(sent.contains("answer"));
+    }
+
+    @Test
+    public void bigAndEncodedNumbersAreRecorded() throws IOException {
+        MapNode.Builder builder = new MapNode.Builder();
+        builder.writeStartArray();
+        builder.writeNumber(new BigInteger("123456789012345678901234567890"));
+        builder.writeNumber(new BigDecimal("0.1"));
+        builder.writeNumber("7");
+        builder.writeEndArray();
+
+        StringWriter out = new StringWriter();
+        JsonGenerator json = new JsonFactory().createGenerator(out);
+        builder.build(null).writeTo(json);
+        json.flush();
+        assertEquals("[123456789012345678901234567890,0.1,7]", out.toString());
+    }
+
+    @Test(expected = JsonGenerationException.class)
+    public void rawValuesAreRejected() throws IOException {
+        new MapNode.Builder().writeRaw("{}");
+    }
+
+    @Test
+    public void errorsAreThrownAfterTheRecordedOutput() throws IOException {
+        MapNode.Builder builder = new MapNode.Builder();
+        builder.writeStartObject();
+        builder.writeFieldName("IASTClass");
+        builder.writeString("CPPASTTranslationUnit");
+        builder.writeFieldName("Size");
+        builder.writeNumber(1L << 40);
+        builder.writeEndObject();
+        IOException error = new IOException("stopped");
+        MapNode tree = builder.build(error);
+
+        StringWriter out = new StringWriter();
+        JsonGenerator json = new JsonFactory().createGenerator(out);
+        try {
+            tree.writeTo(json);
+            fail();
+        } catch (IOException e) {
+            assertSame(error, e);
+        }
+        json.flush();
+        assertEquals("{\"IASTClass\":\"CPPASTTranslationUnit\",\"Size\":1099511627776}",
+                out.toString());
+    }
+}
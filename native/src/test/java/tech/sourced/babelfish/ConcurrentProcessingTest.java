@@ -0,0 +1,52 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConcurrentProcessingTest {
+
+    private static String requestLine(String source) throws IOException {
+        Map<String, String> request = new HashMap<String, String>();
+        request.put("action", "parse");
+        request.put("content", source);
+        return new ObjectMapper().writeValueAsString(request);
+    }
+
+    private static String run(String input, int workers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+        new ParallelRequestLoop(workers, new RequestReader(in, RequestReader.Framing.LINE),
+                new PrintStream(out)).run();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void concurrentWorkersKeepOrderAndOutput() throws IOException {
+        String source = FileUtils.readFileToString(new File("src/test/resources/test.cpp"),
+                StandardCharsets.UTF_8);
+
+        String[] sources = {source, "int main() { return 0; }", "{ broken", source};
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            for (String s : sources) {
+                String line = requestLine(s) + "\n";
+                input.append(line);
+
+                ByteArrayOutputStream single = new ByteArrayOutputStream();
+                new RequestProcessor(single).process(DriverRequest.load(line.trim()));
+                expected.append(new String(single.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+
+        assertEquals(expected.toString(), run(input.toString(), 8));
+    }
+}
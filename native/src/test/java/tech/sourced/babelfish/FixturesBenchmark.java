@@ -0,0 +1,131 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.eclipse.cdt.core.dom.ast.IASTTranslationUnit;
+import org.eclipse.cdt.core.parser.ParserLanguage;
+import org.eclipse.cdt.core.parser.ParserMode;
+import org.eclipse.cdt.internal.core.dom.rewrite.commenthandler.ASTCommenter;
+import org.eclipse.cdt.internal.core.dom.rewrite.commenthandler.NodeCommentMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every phase of a request separately over the files in the fixtures directory:
+ * the CDT parsing, the comment map extraction and the serialization of the AST to a null
+ * sink. Run it with the bench profile (mvn -Pbench verify) which also enables the GC
+ * profiler and prints the bytes allocated per source byte. The fixtures directory can be
+ * changed with -Dbench.fixtures and the list of files with -Dbench.files (comma separated).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FixturesBenchmark {
+
+    @Param({"bench_server.cpp", "cpp17_1.cpp", "cpp17_2.cpp", "cpp17_3.cpp",
+            "_integration.cpp", "comments.cpp", "preprocessor_macro.cpp"})
+    public String fixture;
+
+    private char[] source;
+    private IASTTranslationUnit unit;
+    private NodeCommentMap commentMap;
+    private EclipseCPPParser parser;
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    static File fixturesDir() {
+        return new File(System.getProperty("bench.fixtures", "../fixtures"));
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        File file = new File(fixturesDir(), fixture);
+        source = FileUtils.readFileToString(file, StandardCharsets.UTF_8).toCharArray();
+        parser = new EclipseCPPParser();
+        unit = parser.parseCPPUnit(source);
+        commentMap = ASTCommenter.getCommentedNodeMap(unit);
+    }
+
+    @Benchmark
+    public IASTTranslationUnit parse() {
+        return parser.parseCPPUnit(source);
+    }
+
+    // The parsing done for outline requests, without the function bodies
+    @Benchmark
+    public TranslationUnit parseOutline() throws EclipseCPPParser.ParseTimeoutException {
+        return parser.parse(source, ParserLanguage.CPP, ParserMode.STRUCTURAL_PARSE, 0, false);
+    }
+
+    @Benchmark
+    public NodeCommentMap commentMap() {
+        return ASTCommenter.getCommentedNodeMap(unit);
+    }
+
+    @Benchmark
+    public void serialize() throws IOException {
+        JsonGenerator json = jsonFactory.createGenerator(NullOutputStream.NULL_OUTPUT_STREAM);
+        JsonASTVisitor visitor = new JsonASTVisitor(json, commentMap);
+        unit.accept(visitor);
+        json.flush();
+        if (visitor.hasError) {
+            throw visitor.error;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.include(args.length > 0 ? args[0] : FixturesBenchmark.class.getSimpleName());
+        builder.addProfiler(GCProfiler.class);
+
+        String files = System.getProperty("bench.files");
+        if (files != null && !files.isEmpty()) {
+            builder.param("fixture", files.split(","));
+        }
+        builder.jvmArgsAppend("-Dbench.fixtures=" + fixturesDir().getAbsolutePath());
+
+        Options opt = builder.build();
+        printAllocationPerSourceByte(new Runner(opt).run());
+    }
+
+    // JMH gives the bytes allocated per operation; divide them by the size of the
+    // source to compare files of different sizes
+    private static void printAllocationPerSourceByte(Collection<RunResult> results) {
+        System.out.println();
+        System.out.println(String.format("%-40s %-30s %20s", "Benchmark", "Fixture",
+                    "Alloc bytes/src byte"));
+        for (RunResult result : results) {
+            String fixture = result.getParams().getParam("fixture");
+            if (fixture == null || result.getParams().getMode() != Mode.Throughput) {
+                continue;
+            }
+
+            for (Map.Entry<String, Result> secondary : result.getSecondaryResults().entrySet()) {
+                if (!secondary.getKey().endsWith("gc.alloc.rate.norm")) {
+                    continue;
+                }
+                long size = new File(fixturesDir(), fixture).length();
+                double perByte = size == 0 ? 0 : secondary.getValue().getScore() / size;
+                System.out.println(String.format("%-40s %-30s %20.1f",
+                            result.getParams().getBenchmark(), fixture, perByte));
+            }
+        }
+    }
+}
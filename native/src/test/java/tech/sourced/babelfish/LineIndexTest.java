@@ -0,0 +1,48 @@
+package tech.sourced.babelfish;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.cdt.core.dom.ast.ASTGenericVisitor;
+import org.eclipse.cdt.core.dom.ast.IASTFileLocation;
+import org.eclipse.cdt.core.dom.ast.IASTNode;
+import org.eclipse.cdt.core.dom.ast.IASTTranslationUnit;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class LineIndexTest {
+
+    @Test
+    public void linesAndColumnsInAnyOrder() {
+        LineIndex lines = new LineIndex("ab\n\ncd\ne".toCharArray());
+        int[] offsets = {7, 0, 1, 2, 3, 4, 6, 5, 8, 0};
+        int[] expectedLines = {4, 1, 1, 1, 2, 3, 3, 3, 4, 1};
+        for (int i = 0; i < offsets.length; i++) {
+            assertEquals(expectedLines[i], lines.lineOf(offsets[i]));
+        }
+        assertEquals(3, lines.columnOf(6, 3));
+        assertEquals(2, lines.columnOf(8, 4));
+    }
+
+    @Test
+    public void sameLinesAsCDT() throws IOException {
+        char[] source = FileUtils.readFileToString(new File("src/test/resources/test.cpp"),
+                StandardCharsets.UTF_8).toCharArray();
+        IASTTranslationUnit unit = new EclipseCPPParser().parseCPPUnit(source);
+        final LineIndex lines = new LineIndex(source);
+
+        unit.accept(new ASTGenericVisitor(true) {
+            @Override
+            protected int genericVisit(IASTNode node) {
+                IASTFileLocation loc = node.getFileLocation();
+                if (loc != null) {
+                    assertEquals(loc.getStartingLineNumber(), lines.lineOf(loc.getNodeOffset()));
+                }
+                return PROCESS_CONTINUE;
+            }
+        });
+    }
+}
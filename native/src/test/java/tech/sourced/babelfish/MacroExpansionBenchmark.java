@@ -0,0 +1,94 @@
+package tech.sourced.babelfish;
+
+import org.eclipse.cdt.core.dom.ast.IASTNode;
+import org.eclipse.cdt.core.dom.ast.IASTPreprocessorMacroExpansion;
+import org.eclipse.cdt.core.dom.ast.IASTTranslationUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures MacroExpansionContainer.checkFromExpansion over a fixed sample of nodes
+ * spread over a synthetic file with one macro expansion per line. The score is the
+ * time per node; compare the scores of the different expansion counts: it must grow
+ * logarithmically, not linearly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MacroExpansionBenchmark {
+    // Nodes checked by every invocation, the same for all the expansion counts
+    private static final int SAMPLE_NODES = 1000;
+
+    @Param({"1000", "10000", "50000"})
+    public int expansions;
+
+    private MacroExpansionContainer container;
+    private IASTNode[] nodes;
+
+    static String syntheticSource(int expansions) {
+        StringBuilder source = new StringBuilder();
+        source.append("#define SQUARE(x) ((x) * (x))\n");
+        source.append("#define ZERO 0\n");
+        for (int i = 0; i < expansions; i++) {
+            if (i % 2 == 0) {
+                source.append("int v").append(i).append(" = SQUARE(").append(i).append(");\n");
+            } else {
+                source.append("int v").append(i).append(" = ZERO;\n");
+            }
+        }
+        return source.toString();
+    }
+
+    @Setup
+    public void setup() {
+        IASTTranslationUnit unit = new EclipseCPPParser().parseCPP(syntheticSource(expansions)).rootNode;
+
+        container = new MacroExpansionContainer();
+        for (IASTPreprocessorMacroExpansion exp : unit.getMacroExpansions()) {
+            container.add(exp);
+        }
+        container.sortByStartOffset();
+
+        List<IASTNode> collected = new ArrayList<IASTNode>();
+        ArrayDeque<IASTNode> pending = new ArrayDeque<IASTNode>();
+        pending.push(unit);
+        while (!pending.isEmpty()) {
+            IASTNode node = pending.pop();
+            collected.add(node);
+            for (IASTNode child : node.getChildren()) {
+                pending.push(child);
+            }
+        }
+        nodes = new IASTNode[SAMPLE_NODES];
+        for (int i = 0; i < SAMPLE_NODES; i++) {
+            nodes[i] = collected.get((int) ((long) i * collected.size() / SAMPLE_NODES));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE_NODES)
+    public void checkSampleNodes(Blackhole hole) {
+        for (IASTNode node : nodes) {
+            hole.consume(container.checkFromExpansion(node));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(MacroExpansionBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,46 @@
+package tech.sourced.babelfish;
+
+import org.eclipse.cdt.core.parser.ParserLanguage;
+import org.eclipse.cdt.core.parser.ParserMode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class MemoryGovernorTest {
+
+    @Test
+    public void estimateCountsDirectivesAndComments() {
+        String source = "#include <a.h>\n  #define X 1\nint a; // one\n/* two */ int b = a#b;\n";
+        long expected = source.length() * (long) MemoryGovernor.BYTES_PER_SOURCE_CHAR
+                + 2 * MemoryGovernor.BYTES_PER_DIRECTIVE
+                + 2 * MemoryGovernor.BYTES_PER_COMMENT;
+        assertEquals(expected, MemoryGovernor.estimateCost(source.toCharArray()));
+    }
+
+    @Test
+    public void disabledGovernorAlwaysFits() {
+        MemoryGovernor governor = new MemoryGovernor(0);
+        assertFalse(governor.isEnabled());
+        assertTrue(governor.fits(new char[1 << 20]));
+        assertFalse(governor.isOverBudget());
+    }
+
+    @Test
+    public void reducedResponseHasNoBodiesCommentsNorPreprocessorStatements()
+            throws IOException {
+        String source = "#define N 2\n// comment\nint a = N;\nint f() { return N; }\n";
+        byte[] out = TestResponses.send(ExchangeFormat.JSON, source, ParserLanguage.CPP,
+                ParserMode.COMPLETE_PARSE, true, null);
+
+        String json = new String(out, StandardCharsets.UTF_8);
+        assertFalse(json.contains("\"Comments\""));
+        assertFalse(json.contains("\"Prop_PreprocStatements\""));
+        assertFalse(json.contains("\"ExpandedFromMacro\""));
+        assertTrue(json.contains("\"IsSkippedBody\":true"));
+        assertFalse(json.contains("\"CPPASTReturnStatement\""));
+        assertTrue(json.contains("\"reduced\":true"));
+    }
+}
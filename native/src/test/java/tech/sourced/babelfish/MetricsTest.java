@@ -0,0 +1,44 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    private static JsonNode process(String request) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RequestProcessor(out).process(DriverRequest.load(request));
+        return new ObjectMapper().readTree(out.toByteArray());
+    }
+
+    @Test
+    public void responseHasTheRequestedMetrics() throws IOException {
+        JsonNode response = process("{\"metrics\": true, \"content\": " +
+                "\"#define ONE 1\\n// one\\nint x = ONE;\\n\"}");
+
+        JsonNode metrics = response.get("metrics");
+        assertTrue(metrics.get("parseMs").asDouble() > 0);
+        assertTrue(metrics.get("serializeMs").asDouble() > 0);
+        assertTrue(metrics.get("nodes").asInt() > 3);
+        assertEquals(1, metrics.get("comments").asInt());
+        assertEquals(1, metrics.get("macroExpansions").asInt());
+
+        assertNull(process("{\"content\": \"int x;\"}").get("metrics"));
+    }
+
+    @Test
+    public void statsAreInPrometheusFormat() throws IOException {
+        process("{\"content\": \"int x;\"}");
+        String stats = process("{\"action\": \"stats\"}").get("stats").asText();
+
+        assertTrue(stats.contains("# TYPE cppdriver_requests_total counter\n"));
+        assertTrue(stats.matches("(?s).*\ncppdriver_requests_total\\{status=\"ok\"\\} [1-9].*"));
+        assertTrue(stats.contains("cppdriver_phase_seconds_total{phase=\"parse\"} "));
+    }
+}
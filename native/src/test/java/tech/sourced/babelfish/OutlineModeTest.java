@@ -0,0 +1,27 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.eclipse.cdt.core.parser.ParserLanguage;
+import org.eclipse.cdt.core.parser.ParserMode;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class OutlineModeTest {
+
+    @Test
+    public void functionBodiesArePlaceholders() throws IOException {
+        String source = "int f(int a) {\n  int b = a * 2;\n  return b;\n}\n";
+        JsonNode ast = TestResponses.sendJson(source, ParserLanguage.CPP,
+                ParserMode.STRUCTURAL_PARSE, false, null).get("ast");
+        JsonNode function = ast.get("Prop_Declarations").get(0);
+        JsonNode body = function.get("Prop_Body");
+        assertEquals("CPPASTFunctionDefinition", function.get("IASTClass").asText());
+        assertTrue(body.get("IsSkippedBody").asBoolean());
+        assertNull(body.get("Prop_Statements"));
+        assertEquals(source.indexOf("{\n  int"), body.get("LocOffsetStart").asInt());
+        assertEquals(source.lastIndexOf("}") + 1, body.get("LocOffsetEnd").asInt());
+    }
+}
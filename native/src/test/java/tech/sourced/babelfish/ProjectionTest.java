@@ -0,0 +1,102 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.eclipse.cdt.core.parser.ParserLanguage;
+import org.eclipse.cdt.core.parser.ParserMode;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ProjectionTest {
+
+    private static final String SOURCE =
+            "// answer\nnamespace n {\nint f(int a) {\n  return a * 42;\n}\n}\n";
+
+    private static JsonNode parse(String projection) throws IOException {
+        DriverRequest request = DriverRequest.load("{\"content\": \"\", \"projection\": " +
+                projection + "}");
+        return TestResponses.sendJson(SOURCE, ParserLanguage.CPP, ParserMode.COMPLETE_PARSE,
+                false, response -> response.setProjection(request.projection)).get("ast");
+    }
+
+    // The element of the array with the given IASTClass, or null
+    private static JsonNode withClass(JsonNode array, String className) {
+        for (JsonNode element : array) {
+            if (className.equals(element.get("IASTClass").asText()))
+                return element;
+        }
+        return null;
+    }
+
+    private static boolean hasName(JsonNode array, String name) {
+        for (JsonNode element : array) {
+            if (name.equals(element.path("Name").asText()))
+                return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void includedClassesOnly() throws IOException {
+        JsonNode ast = parse("{\"include\": [\"ICPPASTNamespaceDefinition\", " +
+                "\"IASTFunctionDefinition\", \"IASTName\"]}");
+
+        JsonNode namespace = ast.get("Prop_Declarations").get(0);
+        JsonNode function = namespace.get("Prop_Declarations").get(0);
+        assertEquals("CPPASTFunctionDefinition", function.get("IASTClass").asText());
+        assertEquals("n", namespace.get("Prop_Name").get("Name").asText());
+
+        // The declarator and the body aren't included but the names under them are
+        JsonNode declarator = function.get("Prop_Declarator");
+        assertTrue(declarator.isArray());
+        assertNull(withClass(declarator, "CPPASTFunctionDeclarator"));
+        assertTrue(hasName(declarator, "f"));
+        assertTrue(hasName(declarator, "a"));
+        assertTrue(hasName(function.get("Prop_Body"), "a"));
+        assertNull(function.get("Prop_DeclSpecifier"));
+    }
+
+    @Test
+    public void includedNodesAreHoisted() throws IOException {
+        JsonNode ast = parse("{"include": ["IASTFunctionDefinition", "IASTName"]}");
+
+        // The namespace isn't written, its name and definition go under the unit
+        JsonNode declarations = ast.get("Prop_Declarations");
+        assertNull(withClass(declarations, "CPPASTNamespaceDefinition"));
+        assertTrue(hasName(declarations, "n"));
+        JsonNode function = withClass(declarations, "CPPASTFunctionDefinition");
+        assertNotNull(function);
+        assertTrue(hasName(function.get("Prop_Declarator"), "f"));
+    }
+
+    @Test
+    public void excludedNodesArentWalked() throws IOException {
+        JsonNode ast = parse("{"include": ["IASTFunctionDefinition", "IASTName"], " +
+                ""exclude": ["IASTStatement"]}");
+
+        JsonNode function = withClass(ast.get("Prop_Declarations"), "CPPASTFunctionDefinition");
+        assertNull(function.get("Prop_Body"));
+        assertTrue(hasName(function.get("Prop_Declarator"), "a"));
+    }
+
+    @Test
+    public void excludedClassesAndDepth() throws IOException {
+        JsonNode ast = parse("{\"exclude\": [\"IASTStatement\"], \"maxDepth\": 3}");
+
+        JsonNode function = ast.get("Prop_Declarations").get(0).get("Prop_Declarations").get(0);
+        assertNull(function.get("Prop_Body"));
+        assertNotNull(function.get("Prop_Declarator"));
+        assertNull(function.get("Prop_Declarator").get("Prop_Name"));
+    }
+
+    @Test
+    public void withoutLocationsNorComments() throws IOException {
+        JsonNode ast = parse("{\"locations\": false, \"comments\": false}");
+
+        assertNull(ast.get("Comments"));
+        assertFalse(ast.toString().contains("LocOffsetStart"));
+        assertTrue(ast.toString().contains("\"Name\":\"f\""));
+    }
+}
@@ -0,0 +1,85 @@
+package tech.sourced.babelfish;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class RequestReaderTest {
+
+    private static RequestReader reader(String input, RequestReader.Framing framing) {
+        return new RequestReader(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+                framing);
+    }
+
+    private static String request(String content) {
+        return "{\"action\":\"parse\",\"content\":\"" + content + "\"}";
+    }
+
+    @Test
+    public void readsLines() throws IOException {
+        RequestReader reader = reader(request("a") + "\n" + request("b") + "\r\n" + request("c"),
+                RequestReader.Framing.LINE);
+        assertEquals("a", new String(reader.next().content));
+        assertEquals("b", new String(reader.next().content));
+        assertEquals("c", new String(reader.next().content));
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void readsLinesBiggerThanTheBuffer() throws IOException {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 200000; i++) {
+            big.append('x');
+        }
+        RequestReader reader = reader(request(big.toString()) + "\n" + request("small") + "\n",
+                RequestReader.Framing.LINE);
+        assertEquals(big.toString(), new String(reader.next().content));
+        assertEquals("small", new String(reader.next().content));
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void continuesAfterAnInvalidLine() throws IOException {
+        RequestReader reader = reader("{not json\n" + request("ok") + "\n",
+                RequestReader.Framing.LINE);
+        try {
+            reader.next();
+            fail("expected a RequestLoadException");
+        } catch (DriverRequest.RequestLoadException e) {
+            // expected
+        }
+        assertEquals("ok", new String(reader.next().content));
+    }
+
+    @Test
+    public void rejectsContentThatIsNotAString() throws IOException {
+        RequestReader reader = reader("{\"content\":{\"action\":\"batch\"}}\n" +
+                request("ok") + "\n", RequestReader.Framing.LINE);
+        try {
+            reader.next();
+            fail("expected a RequestLoadException");
+        } catch (DriverRequest.RequestLoadException e) {
+            // expected
+        }
+        assertEquals("ok", new String(reader.next().content));
+    }
+
+    @Test
+    public void readsLengthPrefixedRequests() throws IOException {
+        // The second request contains a newline inside the JSON document
+        String first = request("a");
+        String second = "{\"action\":\"parse\",\n\"content\":\"b\"}";
+        int secondLength = second.getBytes(StandardCharsets.UTF_8).length;
+        RequestReader reader = reader(first.length() + "\n" + first + "\n" +
+                secondLength + "\r\n" + second, RequestReader.Framing.LENGTH);
+        assertEquals("a", new String(reader.next().content));
+        assertEquals("b", new String(reader.next().content));
+        assertNull(reader.next());
+    }
+}
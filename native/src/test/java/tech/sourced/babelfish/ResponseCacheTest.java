@@ -0,0 +1,42 @@
+package tech.sourced.babelfish;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResponseCacheTest {
+
+    @Test
+    public void keyDependsOnContentAndOptions() {
+        String key = ResponseCache.key("int a;".toCharArray(), "JSON");
+        assertEquals(key, ResponseCache.key("int a;".toCharArray(), "JSON"));
+        assertNotEquals(key, ResponseCache.key("int b;".toCharArray(), "JSON"));
+        assertNotEquals(key, ResponseCache.key("int a;".toCharArray(), "SMILE"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        ResponseCache cache = new ResponseCache(40);
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[10]);
+        cache.put("c", new byte[10]);
+        assertNotNull(cache.get("a"));
+        cache.put("d", new byte[10]);
+        cache.put("e", new byte[10]);
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(40, cache.getSize());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void skipsResponsesBiggerThanTheEntryLimit() {
+        ResponseCache cache = new ResponseCache(40);
+        cache.put("big", new byte[11]);
+        assertNull(cache.get("big"));
+        assertEquals(0, cache.getSize());
+    }
+}
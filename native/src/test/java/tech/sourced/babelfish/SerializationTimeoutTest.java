@@ -0,0 +1,59 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.cdt.core.parser.ParserLanguage;
+import org.eclipse.cdt.core.parser.ParserMode;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class SerializationTimeoutTest {
+
+    @Test
+    public void truncatedASTHasTheTimeoutStatus() throws IOException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            source.append("int f").append(i).append("(int a) { return a * ").append(i)
+                    .append(" + 1; }\n");
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DriverResponse response = TestResponses.parse(ExchangeFormat.JSON, out,
+                source.toString(), ParserLanguage.CPP, ParserMode.COMPLETE_PARSE, false, null);
+        // Only the serialization has a budget, already over when it starts
+        response.translationUnit().timeoutMillis = 1;
+        response.translationUnit().deadlineNanos = System.nanoTime();
+        response.send();
+        assertEquals(DriverResponse.Status.timeout, response.status);
+        assertEquals(1, response.errors.size());
+
+        // A single document, with the part of the AST written before the timeout
+        ObjectMapper mapper = new ObjectMapper();
+        JsonParser parser = mapper.getFactory().createParser(out.toByteArray());
+        JsonNode json = mapper.readTree(parser);
+        assertNull(parser.nextToken());
+        assertEquals("timeout", json.get("status").asText());
+        assertTrue(json.get("errors").get(0).asText().startsWith("serialization went over"));
+        JsonNode declarations = json.get("ast").get("Prop_Declarations");
+        assertTrue(declarations.size() > 0 && declarations.size() < 20000);
+    }
+
+    @Test
+    public void gettersDontChangeTheResponse() throws IOException {
+        DriverResponse response = TestResponses.parse(ExchangeFormat.JSON,
+                new ByteArrayOutputStream(), "int a;", ParserLanguage.CPP,
+                ParserMode.COMPLETE_PARSE, false, null);
+        response.translationUnit().serializationTimeout = "serialization went over";
+
+        assertEquals(DriverResponse.Status.timeout, response.getStatus());
+        assertEquals(1, response.getErrors().size());
+        assertEquals(1, response.getErrors().size());
+        assertEquals(DriverResponse.Status.ok, response.status);
+        assertTrue(response.errors.isEmpty());
+    }
+}
@@ -0,0 +1,32 @@
+package tech.sourced.babelfish;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.cdt.core.dom.ast.ASTGenericVisitor;
+import org.eclipse.cdt.core.dom.ast.IASTNode;
+import org.eclipse.cdt.core.dom.ast.IASTTranslationUnit;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class SnippetProviderTest {
+
+    @Test
+    public void slicesTheSameSnippetsAsTheRawSignature() throws IOException {
+        final char[] source = FileUtils.readFileToString(new File("src/test/resources/test.cpp"),
+                StandardCharsets.UTF_8).toCharArray();
+        IASTTranslationUnit unit = new EclipseCPPParser().parseCPPUnit(source);
+        final SnippetProvider snippets = new SnippetProvider(source);
+
+        unit.accept(new ASTGenericVisitor(true) {
+            @Override
+            protected int genericVisit(IASTNode node) {
+                assertEquals(EclipseCPPParser.getSnippet(node), snippets.get(node));
+                return PROCESS_CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,90 @@
+package tech.sourced.babelfish;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time from the start of the driver process until its first response is
+ * read, without and with the class data sharing archive built by cds.sh. Every
+ * invocation starts a new JVM through native.sh with the java running the benchmark,
+ * from a temporary copy of the driver directory. It needs the packaged jar so run it
+ * with the bench profile: mvn -Pbench verify -Dbench.include=StartupBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({"false", "true"})
+    public boolean sharedArchive;
+
+    private static final byte[] REQUEST =
+            "{\"action\":\"parse\",\"content\":\"int main() { return 0; }\"}\n"
+                    .getBytes(StandardCharsets.UTF_8);
+
+    private File driverDir;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        File jar = new File(System.getProperty("bench.jar",
+                    "target/native-jar-with-dependencies.jar")).getAbsoluteFile();
+        driverDir = Files.createTempDirectory("startup-bench").toFile();
+        FileUtils.copyFileToDirectory(jar, driverDir);
+        FileUtils.copyFileToDirectory(new File("native.sh"), driverDir);
+
+        if (sharedArchive) {
+            File archive = new File(driverDir, "native.jsa");
+            Process cds = withJava(new ProcessBuilder("sh", "cds.sh", jar.getPath(),
+                        FixturesBenchmark.fixturesDir().getAbsolutePath(), archive.getPath()))
+                    .inheritIO().start();
+            if (cds.waitFor() != 0 || !archive.exists()) {
+                throw new IllegalStateException("cds.sh couldn't build the archive");
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(driverDir);
+    }
+
+    // Runs the java of the benchmark instead of the first one in the PATH
+    private static ProcessBuilder withJava(ProcessBuilder builder) {
+        String javaBin = System.getProperty("java.home") + File.separator + "bin";
+        builder.environment().put("PATH", javaBin + File.pathSeparator +
+                builder.environment().get("PATH"));
+        return builder;
+    }
+
+    @Benchmark
+    public int firstResponse() throws IOException, InterruptedException {
+        Process driver = withJava(new ProcessBuilder("sh",
+                    new File(driverDir, "native.sh").getPath()))
+                .redirectError(new File("/dev/null"))
+                .start();
+
+        int length = 0;
+        try (OutputStream in = driver.getOutputStream();
+             InputStream out = driver.getInputStream()) {
+            in.write(REQUEST);
+            in.flush();
+            int b;
+            while ((b = out.read()) != -1 && b != '\n') {
+                length++;
+            }
+        }
+        driver.waitFor();
+        return length;
+    }
+}
@@ -0,0 +1,98 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class StringTableTest {
+    private static final Set<String> SHARED_FIELDS = new HashSet<String>(
+            Arrays.asList("Name", "SymbolName", "LiteralValue", "ExpandedFromMacro"));
+
+    private static JsonNode process(String source, String format, boolean stringTable,
+                                    JsonFactory factory) throws IOException {
+        Map<String, Object> request = new HashMap<String, Object>();
+        request.put("content", source);
+        request.put("format", format);
+        request.put("stringTable", stringTable);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RequestProcessor(out).process(
+                DriverRequest.load(new ObjectMapper().writeValueAsString(request)));
+        return new ObjectMapper(factory).readTree(out.toByteArray());
+    }
+
+    // Replaces the indexes by their strings
+    private static void resolve(JsonNode node, JsonNode strings) {
+        if (node.isObject()) {
+            ObjectNode object = (ObjectNode) node;
+            Iterator<Map.Entry<String, JsonNode>> fields = object.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (SHARED_FIELDS.contains(field.getKey()) && field.getValue().isInt()) {
+                    field.setValue(strings.get(field.getValue().asInt()));
+                } else {
+                    resolve(field.getValue(), strings);
+                }
+            }
+        } else if (node.isArray()) {
+            for (JsonNode element : node) {
+                resolve(element, strings);
+            }
+        }
+    }
+
+    private static void assertSameAST(String source, String format, JsonFactory factory)
+            throws IOException {
+        JsonNode inline = process(source, format, false, factory);
+        JsonNode shared = process(source, format, true, factory);
+
+        assertNull(inline.get("strings"));
+        JsonNode strings = ((ObjectNode) shared).remove("strings");
+        Set<String> distinct = new HashSet<String>();
+        for (JsonNode string : strings) {
+            assertTrue(distinct.add(string.asText()));
+        }
+        resolve(shared, strings);
+        assertEquals(inline, shared);
+    }
+
+    @Test
+    public void stringsAreWrittenOnce() throws IOException {
+        String source = "#define TWICE(x) ((x) + (x))\n" +
+                "int twice(int value) { return TWICE(value) + TWICE(value) + 2 + 2; }\n";
+        JsonNode response = process(source, "json", true, new JsonFactory());
+
+        JsonNode strings = response.get("strings");
+        int value = -1;
+        for (int i = 0; i < strings.size(); i++) {
+            if (strings.get(i).asText().equals("value")) {
+                value = i;
+            }
+        }
+        assertTrue(value >= 0);
+        String ast = response.get("ast").toString();
+        assertTrue(ast.matches("(?s).*\"Name\":" + value + "[,}].*"));
+        assertFalse(ast.contains("\"Name\":\"value\""));
+
+        assertSameAST(source, "json", new JsonFactory());
+    }
+
+    @Test
+    public void sameASTInEveryFormat() throws IOException {
+        String source = FileUtils.readFileToString(new File("src/test/resources/test.cpp"),
+                StandardCharsets.UTF_8);
+        assertSameAST(source, "json", new JsonFactory());
+        assertSameAST(source, "cbor", new CBORFactory());
+    }
+}
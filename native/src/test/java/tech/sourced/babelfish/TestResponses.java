@@ -0,0 +1,50 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.cdt.core.parser.ParserLanguage;
+import org.eclipse.cdt.core.parser.ParserMode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Parses sources into responses the way the request processor does, without going
+ * through a request, so the tests only give the options they check.
+ */
+final class TestResponses {
+    // Options of the response set before parsing, like the projection
+    interface Setup {
+        void apply(DriverResponse response);
+    }
+
+    private TestResponses() {}
+
+    // Parses the source without sending the response; setup can be null
+    static DriverResponse parse(ExchangeFormat format, OutputStream out, String source,
+                                ParserLanguage lang, ParserMode mode, boolean reduced,
+                                Setup setup) throws IOException {
+        DriverResponse response = new DriverResponse(format.createWritter(out));
+        if (setup != null) {
+            setup.apply(response);
+        }
+        response.parseCode(new EclipseCPPParser(), source.toCharArray(), lang, mode, 0,
+                reduced);
+        return response;
+    }
+
+    // Parses the source and returns the sent response
+    static byte[] send(ExchangeFormat format, String source, ParserLanguage lang,
+                       ParserMode mode, boolean reduced, Setup setup) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        parse(format, out, source, lang, mode, reduced, setup).send();
+        return out.toByteArray();
+    }
+
+    static JsonNode sendJson(String source, ParserLanguage lang, ParserMode mode,
+                             boolean reduced, Setup setup) throws IOException {
+        return new ObjectMapper().readTree(send(ExchangeFormat.JSON, source, lang, mode,
+                reduced, setup));
+    }
+}
@@ -0,0 +1,37 @@
+package tech.sourced.babelfish;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.eclipse.cdt.core.parser.ParserLanguage;
+import org.eclipse.cdt.core.parser.ParserMode;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class WarmupTest {
+
+    @Test
+    public void enabledByAnyLimit() {
+        assertFalse(new Warmup(0, 0).isEnabled());
+        assertTrue(new Warmup(1, 0).isEnabled());
+        assertTrue(new Warmup(0, 100).isEnabled());
+    }
+
+    @Test
+    public void warmupIsNotCounted() {
+        String before = DriverMetrics.getInstance().toPrometheus();
+        new Warmup(1, 0).run();
+        assertEquals(before, DriverMetrics.getInstance().toPrometheus());
+    }
+
+    @Test
+    public void cCorpusIsValidC() throws IOException {
+        for (char[] source : Warmup.loadCorpus(Warmup.C_CORPUS)) {
+            JsonNode response = TestResponses.sendJson(new String(source), ParserLanguage.C,
+                    ParserMode.COMPLETE_PARSE, false, null);
+            assertEquals(String.valueOf(response.get("errors")), "ok",
+                    response.get("status").asText());
+        }
+    }
+}